@@ -51,7 +51,7 @@ public class S3ObjectStoreConfiguration {
   public BlobStoreContext blobStoreContext() {
     try {
       final Properties overrides = new Properties();
-      overrides.put(S3Constants.PROPERTY_S3_VIRTUAL_HOST_BUCKETS, "true");
+      overrides.put(S3Constants.PROPERTY_S3_VIRTUAL_HOST_BUCKETS, String.valueOf(s3Properties().isVirtualHostBuckets()));
 
       Iterable<Module> modules = ImmutableSet.<Module>of(new SLF4JLoggingModule());
 
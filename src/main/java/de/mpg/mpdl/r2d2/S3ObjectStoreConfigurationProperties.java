@@ -9,6 +9,13 @@ public class S3ObjectStoreConfigurationProperties {
   private String accessKey;
   private String secretKey;
   private String endpoint;
+  private String bucket = "r2d2";
+  // path style requests are needed for MinIO and most other S3 compatible stores
+  private boolean virtualHostBuckets = true;
+  // size (MB) of the parts a single file upload is split into, S3 requires at least 5 MB
+  private int partSize = 16;
+  // number of parts of a single file upload which are uploaded in parallel
+  private int partConcurrency = 4;
 
   public String getProvider() {
     return provider;
@@ -42,4 +49,36 @@ public class S3ObjectStoreConfigurationProperties {
     this.endpoint = endpoint;
   }
 
+  public String getBucket() {
+    return bucket;
+  }
+
+  public void setBucket(String bucket) {
+    this.bucket = bucket;
+  }
+
+  public boolean isVirtualHostBuckets() {
+    return virtualHostBuckets;
+  }
+
+  public void setVirtualHostBuckets(boolean virtualHostBuckets) {
+    this.virtualHostBuckets = virtualHostBuckets;
+  }
+
+  public int getPartSize() {
+    return partSize;
+  }
+
+  public void setPartSize(int partSize) {
+    this.partSize = partSize;
+  }
+
+  public int getPartConcurrency() {
+    return partConcurrency;
+  }
+
+  public void setPartConcurrency(int partConcurrency) {
+    this.partConcurrency = partConcurrency;
+  }
+
 }
@@ -11,6 +11,9 @@ public class SwiftStorageConfigurationProperties {
   private String credentials;
   private String endpoint;
   private String region;
+  // containers known to exist are cached to save the HEAD requests per chunk
+  private int containerCacheSize = 10000;
+  private int containerCacheTtl = 3600;
 
   public String getProvider() {
     return provider;
@@ -60,4 +63,20 @@ public class SwiftStorageConfigurationProperties {
     this.region = region;
   }
 
+  public int getContainerCacheSize() {
+    return containerCacheSize;
+  }
+
+  public void setContainerCacheSize(int containerCacheSize) {
+    this.containerCacheSize = containerCacheSize;
+  }
+
+  public int getContainerCacheTtl() {
+    return containerCacheTtl;
+  }
+
+  public void setContainerCacheTtl(int containerCacheTtl) {
+    this.containerCacheTtl = containerCacheTtl;
+  }
+
 }
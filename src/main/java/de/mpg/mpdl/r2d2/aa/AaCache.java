@@ -0,0 +1,160 @@
+package de.mpg.mpdl.r2d2.aa;
+
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import de.mpg.mpdl.r2d2.db.ReviewTokenRepository;
+import de.mpg.mpdl.r2d2.db.UserAccountRepository;
+import de.mpg.mpdl.r2d2.model.ReviewToken;
+import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+
+/**
+ * Cache for the user accounts and review tokens which are read to authenticate and authorize each request. Only existing entities are
+ * cached; review tokens are never changed once created.
+ * <p>
+ * Accounts have to be invalidated by everyone changing them (grants, activation, deletion), which only affects the cache of the own
+ * node. Therefore a cached account is also compared to the modification date in the database once it was not checked for
+ * r2d2.aa.cache.revalidate seconds, so other nodes serve a changed or deleted account for at most that long. Changes have to set the
+ * modification date of the account for this. Entries expire after r2d2.aa.cache.ttl seconds anyway, so changes made directly in the
+ * database without touching the modification date are picked up eventually.
+ */
+@Component
+public class AaCache {
+
+  @Value("${r2d2.aa.cache.enabled:true}")
+  private boolean enabled;
+
+  @Value("${r2d2.aa.cache.maxSize:10000}")
+  private long maxSize;
+
+  @Value("${r2d2.aa.cache.ttl:60}")
+  private long ttl;
+
+  @Value("${r2d2.aa.cache.revalidate:5}")
+  private long revalidate;
+
+  @Autowired
+  private UserAccountRepository userAccountRepository;
+
+  @Autowired
+  private ReviewTokenRepository reviewTokenRepository;
+
+  private Cache<UUID, CachedAccount> userAccounts;
+
+  private Cache<String, ReviewToken> reviewTokens;
+
+  @PostConstruct
+  public void init() {
+    userAccounts = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, TimeUnit.SECONDS).recordStats().build();
+    reviewTokens = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, TimeUnit.SECONDS).recordStats().build();
+  }
+
+  public Optional<UserAccount> getUserAccount(UUID id) {
+    if (!enabled) {
+      return userAccountRepository.findById(id);
+    }
+    CachedAccount cached = userAccounts.getIfPresent(id);
+    if (cached != null && !isCurrent(id, cached)) {
+      userAccounts.invalidate(id);
+      cached = null;
+    }
+    if (cached == null) {
+      UserAccount account = userAccountRepository.findById(id).orElse(null);
+      if (account == null) {
+        return Optional.empty();
+      }
+      cached = new CachedAccount(account);
+      userAccounts.put(id, cached);
+    }
+    return Optional.of(cached.account);
+  }
+
+  // only reads the modification date, which is much cheaper than reading the account with its grants
+  private boolean isCurrent(UUID id, CachedAccount cached) {
+    long now = System.currentTimeMillis();
+    if (now - cached.validated < TimeUnit.SECONDS.toMillis(revalidate)) {
+      return true;
+    }
+    Optional<OffsetDateTime> modificationDate = userAccountRepository.findModificationDateById(id);
+    if (modificationDate.isPresent() && modificationDate.get().isEqual(cached.account.getModificationDate())) {
+      cached.validated = now;
+      return true;
+    }
+    return false;
+  }
+
+  public Optional<ReviewToken> getReviewToken(String token) {
+    if (!enabled) {
+      return reviewTokenRepository.findByToken(token);
+    }
+    ReviewToken reviewToken = reviewTokens.getIfPresent(token);
+    if (reviewToken == null) {
+      reviewToken = reviewTokenRepository.findByToken(token).orElse(null);
+      if (reviewToken != null) {
+        reviewTokens.put(token, reviewToken);
+      }
+    }
+    return Optional.ofNullable(reviewToken);
+  }
+
+  /**
+   * Removes the account now and, if called within a transaction, again after its commit, so a request reading the account before the
+   * change is committed doesn't cache the old state.
+   */
+  public void invalidateUserAccount(UUID id) {
+    userAccounts.invalidate(id);
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCompletion(int status) {
+          userAccounts.invalidate(id);
+        }
+      });
+    }
+  }
+
+  public Map<String, Object> getStatistics() {
+    Map<String, Object> statistics = new LinkedHashMap<>();
+    statistics.put("enabled", enabled);
+    statistics.put("userAccounts", getStatistics(userAccounts));
+    statistics.put("reviewTokens", getStatistics(reviewTokens));
+    return statistics;
+  }
+
+  private static class CachedAccount {
+    private final UserAccount account;
+    private volatile long validated = System.currentTimeMillis();
+
+    private CachedAccount(UserAccount account) {
+      this.account = account;
+    }
+  }
+
+  private static Map<String, Object> getStatistics(Cache<?, ?> cache) {
+    CacheStats stats = cache.stats();
+    Map<String, Object> statistics = new LinkedHashMap<>();
+    statistics.put("entries", cache.size());
+    statistics.put("hits", stats.hitCount());
+    statistics.put("misses", stats.missCount());
+    statistics.put("hitRate", stats.hitRate());
+    statistics.put("evictions", stats.evictionCount());
+    return statistics;
+  }
+
+}
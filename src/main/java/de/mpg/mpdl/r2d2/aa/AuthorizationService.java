@@ -22,7 +22,6 @@ import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import de.mpg.mpdl.r2d2.db.ReviewTokenRepository;
 import de.mpg.mpdl.r2d2.db.UserAccountRepository;
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2ApplicationException;
@@ -48,7 +47,7 @@ public class AuthorizationService {
   private UserAccountRepository userAccountRepository;
 
   @Autowired
-  private ReviewTokenRepository reviewTokenRepository;
+  private AaCache aaCache;
 
 
   private ObjectMapper modelMapper;
@@ -242,7 +241,7 @@ public class AuthorizationService {
 
             }
             if (userMap.containsKey("token_match") && principal != null && principal.getReviewToken() != null) {
-              ReviewToken reviewToken = reviewTokenRepository.findByToken(principal.getReviewToken()).orElse(null);
+              ReviewToken reviewToken = aaCache.getReviewToken(principal.getReviewToken()).orElse(null);
 
               if (reviewToken != null) {
                 subQb.must(QueryBuilders.termsQuery(indices.get(userMap.get("token_match")), reviewToken.getDataset().toString()));
@@ -444,7 +443,7 @@ public class AuthorizationService {
         throw new AuthorizationException("Review token is null");
       }
 
-      ReviewToken reviewToken = reviewTokenRepository.findByToken(principal.getReviewToken())
+      ReviewToken reviewToken = aaCache.getReviewToken(principal.getReviewToken())
           .orElseThrow(() -> new AuthorizationException("Invalid review token: " + principal.getReviewToken()));
 
 
@@ -23,7 +23,6 @@ import org.springframework.security.web.authentication.www.BasicAuthenticationFi
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 
-import de.mpg.mpdl.r2d2.db.UserAccountRepository;
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.model.aa.UserAccount;
@@ -38,11 +37,11 @@ public class JWTAuthenticationFilter extends BasicAuthenticationFilter {
 
   private static Logger LOGGER = LoggerFactory.getLogger(JWTAuthenticationFilter.class);
 
-  private UserAccountRepository userAccountRepository;
+  private AaCache aaCache;
 
-  public JWTAuthenticationFilter(AuthenticationManager authManager, UserAccountRepository uar) {
+  public JWTAuthenticationFilter(AuthenticationManager authManager, AaCache aaCache) {
     super(authManager);
-    this.userAccountRepository = uar;
+    this.aaCache = aaCache;
   }
 
 
@@ -74,7 +73,7 @@ public class JWTAuthenticationFilter extends BasicAuthenticationFilter {
           .verify(token.replace(JWTLoginFilter.TOKEN_PREFIX, "")).getClaim("user_id").asString();
 
       if (userId != null) {
-        Optional<UserAccount> oua = userAccountRepository.findById(UUID.fromString(userId));
+        Optional<UserAccount> oua = aaCache.getUserAccount(UUID.fromString(userId));
         if (oua.isEmpty()) {
           logger.info("Cannot authenticate token with user id " + userId + ". User not found.");
         } else {
@@ -15,29 +15,27 @@ import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import de.mpg.mpdl.r2d2.db.UserAccountRepository;
-
 @EnableWebSecurity
 @EnableGlobalMethodSecurity(prePostEnabled = true, securedEnabled = true)
 public class WebSecurity extends WebSecurityConfigurerAdapter {
   private UserDetailsServiceImpl userDetailsService;
   private BCryptPasswordEncoder bCryptPasswordEncoder;
 
-  private UserAccountRepository userAccountRepository;
+  private AaCache aaCache;
   private ObjectMapper objectMapper;
 
-  public WebSecurity(UserDetailsServiceImpl userDetailsService, BCryptPasswordEncoder bCryptPasswordEncoder, UserAccountRepository uar,
+  public WebSecurity(UserDetailsServiceImpl userDetailsService, BCryptPasswordEncoder bCryptPasswordEncoder, AaCache aaCache,
       ObjectMapper om) {
     this.userDetailsService = userDetailsService;
     this.bCryptPasswordEncoder = bCryptPasswordEncoder;
-    this.userAccountRepository = uar;
+    this.aaCache = aaCache;
     this.objectMapper = om;
   }
 
   @Override
   protected void configure(HttpSecurity http) throws Exception {
     http.cors().and().csrf().disable().addFilter(new JWTLoginFilter(authenticationManager(), objectMapper))
-        .addFilter(new JWTAuthenticationFilter(authenticationManager(), userAccountRepository))
+        .addFilter(new JWTAuthenticationFilter(authenticationManager(), aaCache))
         .addFilterBefore(new ExceptionFilter(), JWTAuthenticationFilter.class)
         // this disables session creation on Spring Security
         .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
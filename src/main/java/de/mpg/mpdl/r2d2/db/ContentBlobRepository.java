@@ -0,0 +1,64 @@
+package de.mpg.mpdl.r2d2.db;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import de.mpg.mpdl.r2d2.model.ContentBlob;
+
+public interface ContentBlobRepository extends CrudRepository<ContentBlob, String> {
+
+  /**
+   * Registers the content with the given SHA-256, or adds a reference if it is already known.
+   *
+   * @return the container holding the content, which is the given one only if the content was not known before
+   */
+  @Query(value = "INSERT INTO content_blob (id, container, checksum, size, reference_count) VALUES (:id, :container, :checksum, :size, 1) "
+      + "ON CONFLICT (id) DO UPDATE SET reference_count = content_blob.reference_count + 1 RETURNING container", nativeQuery = true)
+  String addReference(@Param("id") String id, @Param("container") String container, @Param("checksum") String checksum,
+      @Param("size") long size);
+
+  /**
+   * Adds a reference to a known blob, unless its last reference is just being removed.
+   */
+  @Modifying
+  @Query(value = "UPDATE content_blob SET reference_count = reference_count + 1 WHERE id = :id AND reference_count > 0",
+      nativeQuery = true)
+  int addExistingReference(@Param("id") String id);
+
+  @Modifying
+  @Query(value = "UPDATE content_blob SET reference_count = reference_count - 1 WHERE id = :id AND reference_count > 0",
+      nativeQuery = true)
+  int removeReference(@Param("id") String id);
+
+  @Modifying
+  @Query(value = "DELETE FROM content_blob WHERE id = :id AND reference_count = 0", nativeQuery = true)
+  int deleteIfUnreferenced(@Param("id") String id);
+
+  /**
+   * Removes the references of the given files in one statement, blobs which are no longer referenced are deleted. Has to be called
+   * before the files are deleted.
+   *
+   * @return the containers of the deleted blobs
+   */
+  @Query(value = "WITH released AS (SELECT sha256 AS id, count(*) AS n FROM file WHERE sha256 IS NOT NULL AND container IS NOT NULL "
+      + "AND id IN (:fileIds) GROUP BY sha256), "
+      + "unreferenced AS (DELETE FROM content_blob USING released WHERE content_blob.id = released.id "
+      + "AND content_blob.reference_count <= released.n RETURNING content_blob.container), "
+      + "referenced AS (UPDATE content_blob SET reference_count = content_blob.reference_count - released.n FROM released "
+      + "WHERE content_blob.id = released.id AND content_blob.reference_count > released.n) "
+      + "SELECT container FROM unreferenced", nativeQuery = true)
+  List<String> removeReferencesOfFiles(@Param("fileIds") Collection<UUID> fileIds);
+
+  @Query("select blob.container from ContentBlob blob")
+  List<String> findAllContainers();
+
+  @Query("select blob.container from ContentBlob blob where blob.container in :containers")
+  List<String> findContainersIn(@Param("containers") Collection<String> containers);
+
+}
@@ -1,11 +1,15 @@
 package de.mpg.mpdl.r2d2.db;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import de.mpg.mpdl.r2d2.model.Dataset;
 import de.mpg.mpdl.r2d2.model.DatasetVersion;
@@ -14,4 +18,31 @@ public interface DatasetRepository extends CrudRepository<Dataset, UUID> {
 
   @Query("select version from DatasetVersion version where version.id.dataset = :id")
   List<DatasetVersion> listAllVersions(@Param("id") UUID id);
+
+  @Query("select dataset.id from Dataset dataset where dataset.id > :after order by dataset.id")
+  List<UUID> findIdsAfter(@Param("after") UUID after, Pageable pageable);
+
+  /**
+   * @return datasets whose latest version number is not the highest version number, or whose latest public version number points to
+   *         no version
+   */
+  @Query("select dataset.id from Dataset dataset where dataset.latestVersion is null "
+      + "or dataset.latestVersion <> (select max(version.versionNumber) from DatasetVersion version where version.dataset.id = dataset.id) "
+      + "or (dataset.latestPublicVersion is not null and not exists (select version from DatasetVersion version "
+      + "where version.dataset.id = dataset.id and version.versionNumber = dataset.latestPublicVersion))")
+  List<UUID> findIdsWithInconsistentLatestVersion();
+
+  @Modifying
+  @Query("delete from Dataset dataset where dataset.id = :id")
+  int deleteDatasetById(@Param("id") UUID id);
+
+  /**
+   * Sets the latest version number and the latest public version number of the datasets from their versions.
+   */
+  @Modifying
+  @Transactional
+  @Query(value = "UPDATE dataset SET latest_version = (SELECT MAX(version.version_number) FROM dataset_version version WHERE version.id = dataset.id), "
+      + "latest_public_version = (SELECT MAX(version.version_number) FROM dataset_version version WHERE version.id = dataset.id "
+      + "AND version.state IN ('PUBLIC', 'WITHDRAWN')) WHERE dataset.id IN :ids", nativeQuery = true)
+  int updateLatestVersions(@Param("ids") Collection<UUID> ids);
 }
@@ -1,13 +1,17 @@
 package de.mpg.mpdl.r2d2.db;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
+import de.mpg.mpdl.r2d2.model.Dataset;
 import de.mpg.mpdl.r2d2.model.DatasetVersion;
 import de.mpg.mpdl.r2d2.model.VersionId;
 
@@ -19,9 +23,54 @@ public interface DatasetVersionRepository extends JpaRepository<DatasetVersion,
   @Query("SELECT datasetVersion FROM DatasetVersion datasetVersion WHERE datasetVersion.dataset.id=:datasetId AND datasetVersion.versionNumber=(SELECT MAX(datasetVersion.versionNumber) FROM DatasetVersion datasetVersion WHERE datasetVersion.dataset.id=:datasetId AND (datasetVersion.state='PUBLIC' OR datasetVersion.state='WITHDRAWN'))")
   public DatasetVersion findLatestPublicVersion(@Param("datasetId") UUID datasetId);
 
+  /**
+   * Looks up the latest version by the version number kept in the dataset, which joins on the primary keys instead of the subquery
+   * of {@link #findLatestVersion(UUID)}.
+   */
+  @Query("SELECT datasetVersion FROM DatasetVersion datasetVersion JOIN FETCH datasetVersion.dataset dataset WHERE dataset.id=:datasetId "
+      + "AND datasetVersion.versionNumber=dataset.latestVersion")
+  public DatasetVersion findLatestVersionByPointer(@Param("datasetId") UUID datasetId);
+
+  @Query("SELECT datasetVersion FROM DatasetVersion datasetVersion JOIN FETCH datasetVersion.dataset dataset WHERE dataset.id=:datasetId "
+      + "AND datasetVersion.versionNumber=dataset.latestPublicVersion")
+  public DatasetVersion findLatestPublicVersionByPointer(@Param("datasetId") UUID datasetId);
+
+  /**
+   * @return the latest version by the version number kept in the dataset. If it points to no version, which only happens if the
+   *         versions were changed bypassing the services, the latest version is determined from the versions.
+   */
+  public default DatasetVersion getLatestVersion(UUID datasetId) {
+    DatasetVersion latestVersion = findLatestVersionByPointer(datasetId);
+    return latestVersion != null ? latestVersion : findLatestVersion(datasetId);
+  }
+
   @Query("SELECT datasetVersion FROM DatasetVersion datasetVersion WHERE datasetVersion.dataset.id=:datasetId")
   public List<DatasetVersion> findAllByDatasetId(@Param("datasetId") UUID datasetId);
 
+  /**
+   * Sets the state of all versions of a dataset in one statement, without loading them.
+   */
+  @Modifying
+  @Query("UPDATE DatasetVersion datasetVersion SET datasetVersion.state = :state WHERE datasetVersion.dataset.id = :datasetId "
+      + "AND datasetVersion.state <> :state")
+  public int updateStateForDataset(@Param("datasetId") UUID datasetId, @Param("state") Dataset.State state);
+
+  @Modifying
+  @Query("DELETE FROM DatasetVersion datasetVersion WHERE datasetVersion.dataset.id = :datasetId")
+  public int deleteAllForDataset(@Param("datasetId") UUID datasetId);
+
+  @Query("SELECT datasetVersion FROM DatasetVersion datasetVersion WHERE datasetVersion.dataset.id > :afterId "
+      + "OR (datasetVersion.dataset.id = :afterId AND datasetVersion.versionNumber > :afterVersion) "
+      + "ORDER BY datasetVersion.dataset.id, datasetVersion.versionNumber")
+  public List<DatasetVersion> findAllAfter(@Param("afterId") UUID afterId, @Param("afterVersion") int afterVersion, Pageable pageable);
+
+  /**
+   * @return the latest version and the latest public version of the given datasets, i.e. the versions kept in the search index
+   */
+  @Query("SELECT datasetVersion FROM DatasetVersion datasetVersion JOIN FETCH datasetVersion.dataset dataset WHERE dataset.id IN :datasetIds "
+      + "AND (datasetVersion.versionNumber = dataset.latestVersion OR datasetVersion.versionNumber = dataset.latestPublicVersion)")
+  public List<DatasetVersion> findIndexedVersions(@Param("datasetIds") Collection<UUID> datasetIds);
+
   /*
   @Query("SELECT DISTINCT datasetVersion.dataset.id FROM DatasetVersion datasetVersion JOIN datasetVersion.files file WHERE file.id = :fileId")
   public List<UUID> findItemsForFile(@Param("fileId") UUID fileId);
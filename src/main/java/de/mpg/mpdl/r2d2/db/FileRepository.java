@@ -1,13 +1,21 @@
 package de.mpg.mpdl.r2d2.db;
 
+import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
+import javax.persistence.LockModeType;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import de.mpg.mpdl.r2d2.model.File;
 import de.mpg.mpdl.r2d2.model.VersionId;
@@ -26,4 +34,113 @@ public interface FileRepository extends JpaRepository<File, UUID> {
   @Query("select file from File file join file.datasets version where version.dataset.id = :datasetId")
   List<File> findAllForDataset(@Param("datasetId") UUID datasetId);
 
+  /**
+   * @return the files of the version which are attached to no other version
+   */
+  @Query("select file from File file join file.datasets version where version.id = :versionId and size(file.datasets) = 1")
+  List<File> findAllOnlyInVersion(@Param("versionId") VersionId versionId);
+
+  /**
+   * Attaches all files of a dataset version to another version of the same dataset in one statement, without loading them.
+   *
+   * @return the number of attached files
+   */
+  @Modifying
+  @Query(value = "INSERT INTO file_datasets (file_id, datasets_id, datasets_version_number) "
+      + "SELECT file_id, datasets_id, :toVersion FROM file_datasets WHERE datasets_id = :datasetId AND datasets_version_number = :fromVersion "
+      + "ON CONFLICT DO NOTHING", nativeQuery = true)
+  int attachAllToVersion(@Param("datasetId") UUID datasetId, @Param("fromVersion") int fromVersion, @Param("toVersion") int toVersion);
+
+  /**
+   * Sets the state of all files of a dataset version in one statement, without loading them.
+   */
+  @Modifying
+  @Query("update File file set file.state = :state where file.state <> :state "
+      + "and file.id in (select f.id from File f join f.datasets version where version.id = :versionId)")
+  int updateStateForVersion(@Param("versionId") VersionId versionId, @Param("state") File.UploadState state);
+
+  @Modifying
+  @Query("update File file set file.state = :state where file.state <> :state "
+      + "and file.id in (select f.id from File f join f.datasets version where version.dataset.id = :datasetId)")
+  int updateStateForDataset(@Param("datasetId") UUID datasetId, @Param("state") File.UploadState state);
+
+  /**
+   * Deletes all files attached to a version of the dataset, together with all their attachments, in one statement.
+   *
+   * @return the number of deleted files
+   */
+  @Modifying
+  @Query(value = "WITH dataset_files AS (SELECT file_id FROM file_datasets WHERE datasets_id = :datasetId), "
+      + "detached AS (DELETE FROM file_datasets WHERE file_id IN (SELECT file_id FROM dataset_files) RETURNING file_id) "
+      + "DELETE FROM file WHERE id IN (SELECT file_id FROM detached)", nativeQuery = true)
+  int deleteAllForDataset(@Param("datasetId") UUID datasetId);
+
+  /**
+   * Detaches all files from a dataset version and deletes the files which are attached to no other version, in one statement.
+   *
+   * @return the number of deleted files
+   */
+  @Modifying
+  @Query(value = "WITH detached AS (DELETE FROM file_datasets WHERE datasets_id = :datasetId AND datasets_version_number = :versionNumber "
+      + "RETURNING file_id) DELETE FROM file WHERE id IN (SELECT file_id FROM detached) AND NOT EXISTS (SELECT 1 FROM file_datasets other "
+      + "WHERE other.file_id = file.id AND NOT (other.datasets_id = :datasetId AND other.datasets_version_number = :versionNumber))",
+      nativeQuery = true)
+  int detachAllFromVersion(@Param("datasetId") UUID datasetId, @Param("versionNumber") int versionNumber);
+
+  @Query("select file from File file where file.state in :states and file.modificationDate < :before and file.id > :after order by file.id")
+  List<File> findStaleUploads(@Param("states") Collection<File.UploadState> states, @Param("before") OffsetDateTime before,
+      @Param("after") UUID after, Pageable pageable);
+
+  /**
+   * Deletes an upload session, unless it was touched (e.g. by a chunk upload) in the meantime.
+   */
+  @Modifying
+  @Transactional
+  @Query("delete from File file where file.id = :id and file.state in :states and file.modificationDate < :before")
+  int deleteStaleUpload(@Param("id") UUID id, @Param("states") Collection<File.UploadState> states, @Param("before") OffsetDateTime before);
+
+  /**
+   * Touches an upload, unless it left the state or was touched in the meantime, so only one caller claims a stale upload.
+   */
+  @Modifying
+  @Transactional
+  @Query("update File file set file.modificationDate = :now "
+      + "where file.id = :id and file.state = :state and file.modificationDate < :before")
+  int touchStaleUpload(@Param("id") UUID id, @Param("state") File.UploadState state, @Param("before") OffsetDateTime before,
+      @Param("now") OffsetDateTime now);
+
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @Query("select file from File file where file.id = :id")
+  Optional<File> findByIdForUpdate(@Param("id") UUID id);
+
+  @Query("select file from File file where file.id > :after order by file.id")
+  List<File> findAllAfter(@Param("after") UUID after, Pageable pageable);
+
+  @Query("select file.id from File file where file.id > :after order by file.id")
+  List<UUID> findIdsAfter(@Param("after") UUID after, Pageable pageable);
+
+  @Query("select file.id from File file where file.id in :ids")
+  List<UUID> findExistingIds(@Param("ids") Collection<UUID> ids);
+
+  /**
+   * @return whether the given user may read a file stored in the given container, i.e. one of the files is public or created by the user
+   */
+  @Query("select case when count(file) > 0 then true else false end from File file "
+      + "where file.container = :container and (file.state = :publicState or file.creator.id = :userId)")
+  boolean existsReadableInContainer(@Param("container") String container, @Param("publicState") File.UploadState publicState,
+      @Param("userId") UUID userId);
+
+  /**
+   * Atomically adds (or replaces) a chunk in the upload state of a file which is still being uploaded. Runs as a single statement, so
+   * concurrent chunk uploads of the same file neither block each other nor overwrite each other's bookkeeping.
+   * 
+   * @return the number of updated rows, 0 if the file does not exist or is not in state INITIATED or ONGOING
+   */
+  @Modifying
+  @Transactional
+  @Query(value = "UPDATE file SET state = 'ONGOING', modification_date = now(), state_info = jsonb_set(COALESCE(state_info, jsonb_build_object()), ARRAY['chunks'], "
+      + "COALESCE((SELECT jsonb_agg(c) FROM jsonb_array_elements(state_info -> 'chunks') c WHERE CAST(c ->> 'number' AS int) <> :number), CAST('[]' AS jsonb)) "
+      + "|| CAST(:chunk AS jsonb)) WHERE id = :fileId AND state IN ('INITIATED', 'ONGOING')", nativeQuery = true)
+  int addChunk(@Param("fileId") UUID fileId, @Param("number") int number, @Param("chunk") String chunk);
+
 }
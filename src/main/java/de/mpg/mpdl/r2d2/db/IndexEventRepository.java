@@ -0,0 +1,39 @@
+package de.mpg.mpdl.r2d2.db;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import de.mpg.mpdl.r2d2.model.IndexEvent;
+
+public interface IndexEventRepository extends CrudRepository<IndexEvent, Long> {
+
+  /**
+   * Locks the oldest events until the end of the transaction. Events locked by another dispatcher are skipped instead of waited for.
+   */
+  @Query(value = "SELECT * FROM index_event ORDER BY sequence_number LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+  List<IndexEvent> lockOldest(@Param("limit") int limit);
+
+  /**
+   * Locks those of the given events which still exist and are not locked by a dispatcher, until the end of the transaction.
+   */
+  @Query(value = "SELECT * FROM index_event WHERE id IN (:ids) ORDER BY sequence_number FOR UPDATE SKIP LOCKED", nativeQuery = true)
+  List<IndexEvent> lockByIds(@Param("ids") Collection<Long> ids);
+
+  /**
+   * @return the ids of those of the given events, for whose target an older event exists which is not among the given ones, i.e. one
+   *         which is claimed by another dispatcher
+   */
+  @Query("select event.id from IndexEvent event where event.id in :ids and exists (select older.id from IndexEvent older "
+      + "where older.targetId = event.targetId and older.sequenceNumber < event.sequenceNumber and older.id not in :ids)")
+  List<Long> findOvertaking(@Param("ids") Collection<Long> ids);
+
+  @Modifying
+  @Query("delete from IndexEvent event where event.id in :ids")
+  int deleteByIds(@Param("ids") Collection<Long> ids);
+
+}
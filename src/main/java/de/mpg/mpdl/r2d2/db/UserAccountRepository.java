@@ -1,9 +1,15 @@
 package de.mpg.mpdl.r2d2.db;
 
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 import de.mpg.mpdl.r2d2.model.Dataset;
 import de.mpg.mpdl.r2d2.model.aa.UserAccount;
@@ -12,4 +18,10 @@ public interface UserAccountRepository extends JpaRepository<UserAccount, UUID>
 
   public UserAccount findByEmail(String email);
 
+  @Query("select account.modificationDate from UserAccount account where account.id = :id")
+  public Optional<OffsetDateTime> findModificationDateById(@Param("id") UUID id);
+
+  @Query("select account from UserAccount account where account.id > :after order by account.id")
+  public List<UserAccount> findAllAfter(@Param("after") UUID after, Pageable pageable);
+
 }
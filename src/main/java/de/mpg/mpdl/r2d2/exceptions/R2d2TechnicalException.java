@@ -18,6 +18,11 @@ public class R2d2TechnicalException extends Exception {
     // TODO Auto-generated constructor stub
   }
 
+  public R2d2TechnicalException(String message) {
+    super(message);
+    // TODO Auto-generated constructor stub
+  }
+
   public R2d2TechnicalException(Throwable cause) {
     super(cause);
     // TODO Auto-generated constructor stub
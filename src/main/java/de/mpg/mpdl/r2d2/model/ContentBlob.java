@@ -0,0 +1,65 @@
+package de.mpg.mpdl.r2d2.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Content stored once in the object store and shared by all files with the same SHA-256. The blob lives in the container of the file
+ * which uploaded it first and is removed when the last referencing file is deleted.
+ */
+@Entity
+public class ContentBlob {
+
+  // hex encoded SHA-256 of the content
+  @Id
+  private String id;
+
+  private String container;
+
+  private String checksum;
+
+  private long size;
+
+  private long referenceCount;
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getContainer() {
+    return container;
+  }
+
+  public void setContainer(String container) {
+    this.container = container;
+  }
+
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public void setChecksum(String checksum) {
+    this.checksum = checksum;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public void setSize(long size) {
+    this.size = size;
+  }
+
+  public long getReferenceCount() {
+    return referenceCount;
+  }
+
+  public void setReferenceCount(long referenceCount) {
+    this.referenceCount = referenceCount;
+  }
+
+}
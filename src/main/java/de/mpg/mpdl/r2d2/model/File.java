@@ -32,8 +32,15 @@ public class File extends BaseDb {
 
   private String storageLocation;
 
+  // container holding the content, set when the content is registered: the container of an earlier file with the same SHA-256
+  // (deduplication) or the file's own id for new content. null if the content was not registered (no SHA-256, deduplication disabled
+  // or upload not completed), the container is the id then.
+  private String container;
+
   private String checksum;
 
+  private String sha256;
+
   private String format;
 
   private long size;
@@ -56,6 +63,14 @@ public class File extends BaseDb {
     this.storageLocation = storageLocation;
   }
 
+  public String getContainer() {
+    return container;
+  }
+
+  public void setContainer(String container) {
+    this.container = container;
+  }
+
   public String getChecksum() {
     return checksum;
   }
@@ -64,6 +79,14 @@ public class File extends BaseDb {
     this.checksum = checksum;
   }
 
+  public String getSha256() {
+    return sha256;
+  }
+
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
+  }
+
   public String getFormat() {
     return format;
   }
@@ -115,6 +138,7 @@ public class File extends BaseDb {
   public enum UploadState {
     INITIATED,
     ONGOING,
+    FINALIZING,
     COMPLETE,
     ATTACHED,
     PUBLIC,
@@ -8,6 +8,10 @@ public class FileChunk {
 
   private String serverEtag;
 
+  private String checksum;
+
+  private String sha256;
+
   private long size;
 
   public enum Progress {
@@ -42,6 +46,22 @@ public class FileChunk {
     this.serverEtag = serverEtag;
   }
 
+  public String getChecksum() {
+    return checksum;
+  }
+
+  public void setChecksum(String checksum) {
+    this.checksum = checksum;
+  }
+
+  public String getSha256() {
+    return sha256;
+  }
+
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
+  }
+
   public long getSize() {
     return size;
   }
@@ -13,6 +13,12 @@ public class FileUploadStatus {
 
   private List<FileChunk> chunks = new ArrayList<>();
 
+  // reason why the last attempt to finalize the upload failed
+  private String errorMessage;
+
+  // id of the upload in the object store, if the store keeps one for chunked uploads
+  private String uploadId;
+
   public String getCurrentChecksum() {
     return currentChecksum;
   }
@@ -37,5 +43,21 @@ public class FileUploadStatus {
     this.chunks = chunks;
   }
 
+  public String getErrorMessage() {
+    return errorMessage;
+  }
+
+  public void setErrorMessage(String errorMessage) {
+    this.errorMessage = errorMessage;
+  }
+
+  public String getUploadId() {
+    return uploadId;
+  }
+
+  public void setUploadId(String uploadId) {
+    this.uploadId = uploadId;
+  }
+
 
 }
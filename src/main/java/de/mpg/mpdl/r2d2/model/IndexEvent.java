@@ -0,0 +1,127 @@
+package de.mpg.mpdl.r2d2.model;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.Type;
+
+/**
+ * Outbox entry telling that the search index of a dataset or file has to be brought in line with the database. It is written in the
+ * transaction which changed the dataset or file and only records what changed, the indexed state is read from the database when the
+ * event is dispatched. Only for DATASET_FILES the changed fields are recorded, they are applied to the indexed files of the dataset (or
+ * one of its versions) without reading the files. DATASET_FILES_APPEND likewise records values to be added to list fields of these
+ * files.
+ * <p>
+ * Ids are allocated in blocks from a sequence, so the events of a transaction are inserted in JDBC batches. As the blocks of several
+ * nodes interleave, the order of the events is given by their sequence number, which the database assigns on insert.
+ */
+@Entity
+public class IndexEvent {
+
+  public enum TargetType {
+    DATASET,
+    FILE,
+    DATASET_FILES,
+    DATASET_FILES_APPEND
+  }
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "index_event_seq")
+  @SequenceGenerator(name = "index_event_seq", sequenceName = "index_event_seq", allocationSize = 50)
+  private Long id;
+
+  // assigned by the database, so it is not read back after the insert
+  @Column(columnDefinition = "BIGSERIAL", insertable = false, updatable = false)
+  private Long sequenceNumber;
+
+  @Enumerated(EnumType.STRING)
+  @Column(nullable = false)
+  private TargetType targetType;
+
+  @Column(nullable = false)
+  private UUID targetId;
+
+  // restricts DATASET_FILES to the files of one version, for DATASET the version which was deleted
+  private Integer versionNumber;
+
+  @Type(type = "jsonb")
+  @Column(columnDefinition = "jsonb")
+  private Map<String, Object> fields;
+
+  @Column(columnDefinition = "TIMESTAMP WITH TIME ZONE", nullable = false, updatable = false)
+  @CreationTimestamp
+  private OffsetDateTime creationDate;
+
+  public IndexEvent(TargetType targetType, UUID targetId) {
+    this.targetType = targetType;
+    this.targetId = targetId;
+  }
+
+  public IndexEvent() {
+
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public Long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  public TargetType getTargetType() {
+    return targetType;
+  }
+
+  public void setTargetType(TargetType targetType) {
+    this.targetType = targetType;
+  }
+
+  public UUID getTargetId() {
+    return targetId;
+  }
+
+  public void setTargetId(UUID targetId) {
+    this.targetId = targetId;
+  }
+
+  public Integer getVersionNumber() {
+    return versionNumber;
+  }
+
+  public void setVersionNumber(Integer versionNumber) {
+    this.versionNumber = versionNumber;
+  }
+
+  public Map<String, Object> getFields() {
+    return fields;
+  }
+
+  public void setFields(Map<String, Object> fields) {
+    this.fields = fields;
+  }
+
+  public OffsetDateTime getCreationDate() {
+    return creationDate;
+  }
+
+  public void setCreationDate(OffsetDateTime creationDate) {
+    this.creationDate = creationDate;
+  }
+
+}
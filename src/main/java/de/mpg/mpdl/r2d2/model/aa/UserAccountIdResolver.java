@@ -7,15 +7,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import com.fasterxml.jackson.annotation.ObjectIdGenerator.IdKey;
 import com.fasterxml.jackson.annotation.ObjectIdResolver;
 
+import de.mpg.mpdl.r2d2.aa.AaCache;
 import de.mpg.mpdl.r2d2.db.DatasetVersionRepository;
-import de.mpg.mpdl.r2d2.db.UserAccountRepository;
 import de.mpg.mpdl.r2d2.exceptions.R2d2ApplicationException;
 import de.mpg.mpdl.r2d2.util.AutowireHelper;
 
 public class UserAccountIdResolver implements ObjectIdResolver {
 
   @Autowired
-  private UserAccountRepository users;
+  private AaCache aaCache;
 
   @Override
   public void bindItem(IdKey id, Object pojo) {
@@ -24,8 +24,8 @@ public class UserAccountIdResolver implements ObjectIdResolver {
 
   @Override
   public Object resolveId(IdKey id) {
-    AutowireHelper.autowire(this, this.users);
-    UserAccount ua = users.findById((UUID) id.key).orElseThrow(() -> new RuntimeException("SHIT HAPPENS!"));
+    AutowireHelper.autowire(this, this.aaCache);
+    UserAccount ua = aaCache.getUserAccount((UUID) id.key).orElseThrow(() -> new RuntimeException("SHIT HAPPENS!"));
     return ua;
   }
 
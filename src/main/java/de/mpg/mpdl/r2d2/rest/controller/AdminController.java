@@ -1,11 +1,14 @@
 package de.mpg.mpdl.r2d2.rest.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -14,12 +17,14 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
+import de.mpg.mpdl.r2d2.exceptions.InvalidStateException;
 import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2ApplicationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
@@ -32,20 +37,21 @@ import de.mpg.mpdl.r2d2.service.impl.AdminService;
 @RequestMapping("/admin")
 public class AdminController {
 
+  // listings are streamed with one JSON object per line
+  private static final String JSON_LINES = "application/x-ndjson";
+
   @Autowired
   AdminService service;
 
   @GetMapping(value = "/test")
   public ResponseEntity<?> testTheController(HttpServletRequest request) throws AuthorizationException {
     String testInfo = service.test();
-    List<String> all = service.listAllFiles();
-    return new ResponseEntity<>(all, HttpStatus.OK);
+    return new ResponseEntity<>(testInfo, HttpStatus.OK);
   }
 
-  @GetMapping(value = "/users")
-  public ResponseEntity<?> listAllUsers(HttpServletRequest request) throws AuthorizationException {
-    List<UserAccount> list = service.listAllUsers();
-    return new ResponseEntity<>(list, HttpStatus.OK);
+  @GetMapping(value = "/users", produces = JSON_LINES)
+  public void listAllUsers(HttpServletResponse response) throws AuthorizationException, R2d2TechnicalException {
+    writeLines(response, service::writeAllUsers);
   }
 
   @GetMapping(value = "/users/{id}")
@@ -67,17 +73,47 @@ public class AdminController {
     return new ResponseEntity<>(HttpStatus.NO_CONTENT);
   }
 
-  @GetMapping(value = "/store")
-  public ResponseEntity<?> listAllContainers() throws AuthorizationException {
-    return new ResponseEntity<>(service.listAllContainers(), HttpStatus.OK);
+  @GetMapping(value = "/store", produces = JSON_LINES)
+  public void listAllContainers(HttpServletResponse response) throws AuthorizationException, R2d2TechnicalException {
+    writeLines(response, service::writeAllContainers);
+  }
+
+  @GetMapping(value = "/files", produces = JSON_LINES)
+  public void listAllFiles(HttpServletResponse response) throws AuthorizationException, R2d2TechnicalException {
+    writeLines(response, service::writeAllFileIds);
   }
 
   @GetMapping(value = "/store/clear")
-  public ResponseEntity<?> clearObjectStore() throws AuthorizationException, NotFoundException {
-    Map<String, Object> details = service.clearObjectStore();
+  public ResponseEntity<?> clearObjectStore(@RequestParam(name = "dryRun", required = false, defaultValue = "true") boolean dryRun)
+      throws AuthorizationException, NotFoundException {
+    Map<String, Object> details = service.clearObjectStore(dryRun);
     return new ResponseEntity<>(details, HttpStatus.OK);
   }
 
+  @PostMapping(value = "/index/rebuild")
+  public ResponseEntity<?> rebuildIndex() throws AuthorizationException, InvalidStateException {
+    Map<String, Object> progress = service.rebuildIndex();
+    return new ResponseEntity<>(progress, HttpStatus.ACCEPTED);
+  }
+
+  @GetMapping(value = "/index/rebuild")
+  public ResponseEntity<?> getIndexRebuildProgress() throws AuthorizationException, NotFoundException {
+    Map<String, Object> progress = service.getIndexRebuildProgress();
+    return new ResponseEntity<>(progress, HttpStatus.OK);
+  }
+
+  @GetMapping(value = "/search/cache")
+  public ResponseEntity<?> getSearchCacheStatistics() throws AuthorizationException {
+    Map<String, Object> statistics = service.getSearchCacheStatistics();
+    return new ResponseEntity<>(statistics, HttpStatus.OK);
+  }
+
+  @GetMapping(value = "/aa/cache")
+  public ResponseEntity<?> getAaCacheStatistics() throws AuthorizationException {
+    Map<String, Object> statistics = service.getAaCacheStatistics();
+    return new ResponseEntity<>(statistics, HttpStatus.OK);
+  }
+
   @GetMapping(value = "/store/{id}")
   public ResponseEntity<?> listObjectStoreContainer(@PathVariable("id") String id) throws AuthorizationException, NotFoundException {
     List<Object> details = service.listContainerContent(id);
@@ -90,10 +126,16 @@ public class AdminController {
     return new ResponseEntity<>(Collections.singletonMap("acknowledged", acknowledged), HttpStatus.NO_CONTENT);
   }
 
-  @GetMapping(value = "/datasets")
-  public ResponseEntity<?> listAllDatasets(HttpServletRequest request) throws AuthorizationException {
-    List<DatasetVersion> list = service.listAllDatasets();
-    return new ResponseEntity<>(list, HttpStatus.OK);
+  @GetMapping(value = "/datasets", produces = JSON_LINES)
+  public void listAllDatasets(HttpServletResponse response) throws AuthorizationException, R2d2TechnicalException {
+    writeLines(response, service::writeAllDatasets);
+  }
+
+  @GetMapping(value = "/datasets/latest-versions")
+  public ResponseEntity<?> checkLatestVersions(@RequestParam(name = "repair", required = false, defaultValue = "false") boolean repair)
+      throws AuthorizationException {
+    Map<String, Object> result = service.checkLatestVersions(repair);
+    return new ResponseEntity<>(result, HttpStatus.OK);
   }
 
   @GetMapping(value = "/datasets/{id}/{versionNumber}")
@@ -110,4 +152,18 @@ public class AdminController {
     Map<String, Object> map = Collections.singletonMap("deleted", resp);
     return new ResponseEntity<>(map, HttpStatus.NO_CONTENT);
   }
+
+  private void writeLines(HttpServletResponse response, LinesWriter linesWriter) throws R2d2TechnicalException {
+    try {
+      response.setContentType(JSON_LINES);
+      linesWriter.writeTo(response.getOutputStream());
+      response.flushBuffer();
+    } catch (IOException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  private interface LinesWriter {
+    void writeTo(OutputStream out) throws IOException;
+  }
 }
@@ -3,7 +3,9 @@ package de.mpg.mpdl.r2d2.rest.controller;
 import java.io.IOException;
 import java.security.Principal;
 import java.time.OffsetDateTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -41,6 +43,7 @@ import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2ApplicationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
 import de.mpg.mpdl.r2d2.model.DatasetVersion;
 import de.mpg.mpdl.r2d2.model.File;
 import de.mpg.mpdl.r2d2.model.ReviewToken;
@@ -49,6 +52,7 @@ import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.rest.controller.dto.DatasetVersionDto;
 import de.mpg.mpdl.r2d2.rest.controller.dto.FileDto;
 import de.mpg.mpdl.r2d2.rest.controller.dto.SetFilesDto;
+import de.mpg.mpdl.r2d2.search.model.DatasetFacet;
 import de.mpg.mpdl.r2d2.search.model.DatasetVersionIto;
 import de.mpg.mpdl.r2d2.search.model.FileIto;
 import de.mpg.mpdl.r2d2.search.model.SearchQuery;
@@ -58,6 +62,7 @@ import de.mpg.mpdl.r2d2.search.service.DatasetSearchService;
 import de.mpg.mpdl.r2d2.search.service.FileSearchService;
 import de.mpg.mpdl.r2d2.service.DatasetVersionService;
 import de.mpg.mpdl.r2d2.service.FileService;
+import de.mpg.mpdl.r2d2.service.util.DatasetArchive;
 import de.mpg.mpdl.r2d2.util.DtoMapper;
 import de.mpg.mpdl.r2d2.util.Utils;
 
@@ -207,6 +212,23 @@ public class DatasetController {
 
   }
 
+  @GetMapping("/{id}/archive")
+  public void downloadArchive(@PathVariable("id") String id, @RequestParam(name = "v", required = false) Integer versionNumber,
+      HttpServletResponse response, @AuthenticationPrincipal R2D2Principal p)
+      throws AuthorizationException, R2d2TechnicalException, NotFoundException {
+
+    DatasetArchive archive = datasetVersionService.getArchive(new VersionId(UUID.fromString(id), versionNumber), p);
+    try {
+      response.setContentType("application/zip");
+      response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archive.getFilename() + "\"");
+      // no content length, the archive is streamed while it is built
+      archive.writeTo(response.getOutputStream());
+      response.flushBuffer();
+    } catch (IOException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
   // move to File Controller
   /*
   @GetMapping("/{id}/{versionNumber}/files/{fileId}")
@@ -307,8 +329,10 @@ public class DatasetController {
   @RequestMapping(value = "", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<SearchResult<DatasetVersionDto>> search(@RequestParam(name = "q", required = false) String query,
       @RequestParam(name = "scroll", required = false) String scrollTimeValue, @RequestParam(name = "from", required = false) Integer from,
-      @RequestParam(name = "size", required = false) Integer size, HttpServletResponse httpResponse,
-      @AuthenticationPrincipal R2D2Principal p) throws AuthorizationException, R2d2TechnicalException, IOException {
+      @RequestParam(name = "size", required = false) Integer size,
+      @RequestParam(name = "cursor", required = false) String cursor,
+      @RequestParam(name = "facets", required = false) List<String> facetNames, HttpServletResponse httpResponse,
+      @AuthenticationPrincipal R2D2Principal p) throws AuthorizationException, R2d2TechnicalException, ValidationException, IOException {
 
     SearchQuery sq = new SearchQuery();
     sq.setQuery(query);
@@ -318,10 +342,18 @@ public class DatasetController {
     if (size != null) {
       sq.setSize(size);
     }
+    sq.setCursor(cursor);
+
 
 
+    Set<DatasetFacet> facets = new LinkedHashSet<>();
+    if (facetNames != null) {
+      for (String facetName : facetNames) {
+        facets.add(DatasetFacet.fromName(facetName));
+      }
+    }
 
-    SearchResult<DatasetVersionIto> resp = datasetSearchService.search(sq, true, p);
+    SearchResult<DatasetVersionIto> resp = datasetSearchService.search(sq, facets, true, p);
 
 
     return new ResponseEntity<SearchResult<DatasetVersionDto>>(dtoMapper.convertToSearchResultDto(resp), HttpStatus.OK);
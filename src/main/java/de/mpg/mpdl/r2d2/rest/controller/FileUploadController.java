@@ -2,9 +2,13 @@ package de.mpg.mpdl.r2d2.rest.controller;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.security.Principal;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -14,14 +18,20 @@ import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.ResponseEntity.BodyBuilder;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -31,6 +41,10 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import com.google.common.hash.HashCode;
 
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.InvalidStateException;
@@ -47,6 +61,7 @@ import de.mpg.mpdl.r2d2.model.File;
 import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.rest.controller.dto.DatasetVersionDto;
 import de.mpg.mpdl.r2d2.rest.controller.dto.FileDto;
+import de.mpg.mpdl.r2d2.rest.controller.dto.FileUploadStatusDto;
 import de.mpg.mpdl.r2d2.search.model.FileIto;
 import de.mpg.mpdl.r2d2.search.model.SearchQuery;
 import de.mpg.mpdl.r2d2.search.model.SearchResult;
@@ -61,6 +76,11 @@ import de.mpg.mpdl.r2d2.util.Utils;
 @RequestMapping("files")
 public class FileUploadController {
 
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
   @Autowired
   private FileService fileService;
 
@@ -84,8 +104,9 @@ public class FileUploadController {
   @GetMapping("")
   public ResponseEntity<SearchResult<FileDto>> search(@RequestParam(name = "q", required = false) String query,
       @RequestParam(name = "scroll", required = false) String scrollTimeValue, @RequestParam(name = "from", required = false) Integer from,
-      @RequestParam(name = "size", required = false) Integer size, HttpServletResponse httpResponse,
-      @AuthenticationPrincipal R2D2Principal p) throws AuthorizationException, R2d2TechnicalException, IOException {
+      @RequestParam(name = "size", required = false) Integer size,
+      @RequestParam(name = "cursor", required = false) String cursor, HttpServletResponse httpResponse,
+      @AuthenticationPrincipal R2D2Principal p) throws AuthorizationException, R2d2TechnicalException, ValidationException, IOException {
 
     SearchQuery sq = new SearchQuery();
     sq.setQuery(query);
@@ -95,6 +116,7 @@ public class FileUploadController {
     if (size != null) {
       sq.setSize(size);
     }
+    sq.setCursor(cursor);
 
     SearchResult<FileIto> resp = fileSearchService.search(sq, true, p);
     SearchResult<FileDto> respDto = dtoMapper.convertToFileSearchResultDto(resp);
@@ -113,17 +135,19 @@ public class FileUploadController {
   }
 
   @GetMapping("/{fileId}/uploadstate")
-  public ResponseEntity<FileUploadStatus> getUploadState(@PathVariable("fileId") String fileId, @AuthenticationPrincipal R2D2Principal p)
-      throws AuthorizationException, R2d2TechnicalException, IOException, NotFoundException {
+  public ResponseEntity<FileUploadStatusDto> getUploadState(@PathVariable("fileId") String fileId,
+      @AuthenticationPrincipal R2D2Principal p) throws AuthorizationException, R2d2TechnicalException, IOException, NotFoundException {
     File resp = fileService.get(UUID.fromString(fileId), p);
-    FileUploadStatus state = resp.getStateInfo();
-    return new ResponseEntity<FileUploadStatus>(state, HttpStatus.OK);
+    FileUploadStatusDto state = new FileUploadStatusDto();
+    BeanUtils.copyProperties(resp.getStateInfo(), state);
+    state.setState(resp.getState());
+    return new ResponseEntity<FileUploadStatusDto>(state, HttpStatus.OK);
   }
 
   @PostMapping("")
   public ResponseEntity<FileDto> newSingleFileUpload(@RequestHeader("File-Name") String fileName,
       @RequestHeader("Content-Type") String contentType, @RequestHeader(name = "Content-MD5", required = false) String etag,
-      HttpServletRequest request, @AuthenticationPrincipal R2D2Principal p)
+      @RequestHeader(name = "Digest", required = false) String digest, HttpServletRequest request, @AuthenticationPrincipal R2D2Principal p)
       throws R2d2ApplicationException, AuthorizationException, R2d2TechnicalException {
     InputStream is;
 
@@ -141,6 +165,8 @@ public class FileUploadController {
     if (etag != null) {
       f.setChecksum(etag);
     }
+    // a known SHA-256 allows to skip the upload of content which is already stored
+    f.setSha256(parseSha256Digest(digest));
 
     f = fileService.uploadSingleFile(f, is, p);
 
@@ -154,6 +180,26 @@ public class FileUploadController {
 
   }
 
+  /**
+   * @return the hex encoded SHA-256 from an RFC 3230 Digest header (e.g. "SHA-256=base64"), or null if there is none
+   */
+  private static String parseSha256Digest(String digest) throws ValidationException {
+    if (digest == null) {
+      return null;
+    }
+    for (String instanceDigest : digest.split(",")) {
+      String[] algorithmAndValue = instanceDigest.trim().split("=", 2);
+      if (algorithmAndValue.length == 2 && "SHA-256".equalsIgnoreCase(algorithmAndValue[0])) {
+        try {
+          return HashCode.fromBytes(Base64.getDecoder().decode(algorithmAndValue[1].trim())).toString();
+        } catch (IllegalArgumentException e) {
+          throw new ValidationException("Invalid SHA-256 digest " + algorithmAndValue[1]);
+        }
+      }
+    }
+    return null;
+  }
+
   @PostMapping("/multipart")
   public ResponseEntity<FileDto> newChunkedFileUpload(@RequestHeader("File-Name") String fileName,
       @RequestHeader("Content-Type") String contentType, @AuthenticationPrincipal R2D2Principal p)
@@ -188,6 +234,10 @@ public class FileUploadController {
       chunk.setClientEtag(etag);
     }
     chunk.setNumber(part);
+    if (req.getContentLengthLong() > 0) {
+      // some stores (S3) need the length of a part in advance
+      chunk.setSize(req.getContentLengthLong());
+    }
 
     FileChunk resultChunk = fileService.uploadFileChunk(UUID.fromString(fileId), chunk, is, p);
 
@@ -209,13 +259,9 @@ public class FileUploadController {
 
     File sf = fileService.completeChunkedUpload(UUID.fromString(fileId), parts, p);
 
-    BodyBuilder responseBuilder = ResponseEntity.status(HttpStatus.CREATED);
-
-    if (sf.getChecksum() != null) {
-      responseBuilder.header("ETag", sf.getChecksum());
-    }
-
-    return responseBuilder.body(dtoMapper.convertToFileDto(sf));
+    // the manifest is created asynchronously, its progress can be followed via the upload state
+    URI uploadState = ServletUriComponentsBuilder.fromCurrentContextPath().path("/files/{fileId}/uploadstate").buildAndExpand(fileId).toUri();
+    return ResponseEntity.accepted().location(uploadState).body(dtoMapper.convertToFileDto(sf));
   }
 
   @DeleteMapping("/{fileId}")
@@ -226,18 +272,28 @@ public class FileUploadController {
   }
 
   @GetMapping("/{fileId}/content")
-  public ResponseEntity<?> download(@PathVariable("fileId") String fileId,
-      @RequestParam(value = "download", required = false, defaultValue = "false") boolean forceDownload, HttpServletResponse response,
-      @AuthenticationPrincipal R2D2Principal p) throws R2d2ApplicationException, AuthorizationException, R2d2TechnicalException {
+  public void download(@PathVariable("fileId") String fileId,
+      @RequestParam(value = "download", required = false, defaultValue = "false") boolean forceDownload, ServletWebRequest webRequest,
+      HttpServletRequest request, HttpServletResponse response, @AuthenticationPrincipal R2D2Principal p)
+      throws R2d2ApplicationException, AuthorizationException, R2d2TechnicalException {
 
     FileDownloadWrapper fd = fileService.getFileContent(UUID.fromString(fileId), p);
+    File file = fd.getFile();
+    String eTag = file.getChecksum() != null ? file.getChecksum().replace("\"", "") : null;
+    long lastModified = file.getModificationDate() != null ? file.getModificationDate().toInstant().toEpochMilli() : -1;
+
+    // answers If-None-Match / If-Modified-Since with 304 and sets ETag and Last-Modified
+    if (webRequest.checkNotModified(eTag, lastModified)) {
+      return;
+    }
+
     try {
       String contentDispositionType = "inline";
       if (forceDownload) {
         contentDispositionType = "attachment";
       }
 
-      response.setContentType(fd.getFile().getFormat());
+      response.setContentType(file.getFormat());
 
       // Add filename and RFC 5987 encoded filename as content disposition headers
       response.setHeader("Content-Disposition", contentDispositionType + "; "
@@ -245,11 +301,125 @@ public class FileUploadController {
       // problems in Apache
       // + "filename=\"" + fileVOWrapper.getFileVO().getName() + "\"; "
           + "filename*=UTF-8''"
-          + URLEncoder.encode(fd.getFile().getFilename(), StandardCharsets.UTF_8.toString()).replaceAll("\\+", "%20"));
+          + URLEncoder.encode(file.getFilename(), StandardCharsets.UTF_8.toString()).replaceAll("\\+", "%20"));
+      response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+      long length = file.getSize();
+      List<HttpRange> ranges = Collections.emptyList();
+      String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+      if (rangeHeader != null && length > 0 && isIfRangeMatching(request, eTag, lastModified)) {
+        boolean satisfiable;
+        try {
+          ranges = HttpRange.parseRanges(rangeHeader);
+          satisfiable = isSatisfiable(ranges, length);
+        } catch (IllegalArgumentException e) {
+          // malformed Range header
+          satisfiable = false;
+        }
+        if (!satisfiable) {
+          response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+          response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+          return;
+        }
+      }
 
-      return new ResponseEntity<InputStreamResource>(new InputStreamResource(fd.readFile()), HttpStatus.OK);
+      boolean headRequest = HttpMethod.HEAD.matches(request.getMethod());
+      if (ranges.isEmpty()) {
+        if (length > 0) {
+          response.setContentLengthLong(length);
+        }
+        if (headRequest) {
+          return;
+        }
+        if (length <= 0) {
+          try (InputStream in = fd.readFile()) {
+            StreamUtils.copy(in, response.getOutputStream());
+          }
+        } else if (!sendLocalFile(fd, 0, length - 1, request)) {
+          fd.writeTo(response.getOutputStream(), 0, length - 1);
+        }
+      } else if (ranges.size() == 1) {
+        long start = ranges.get(0).getRangeStart(length);
+        long end = ranges.get(0).getRangeEnd(length);
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        response.setContentLengthLong(end - start + 1);
+        if (!headRequest && !sendLocalFile(fd, start, end, request)) {
+          fd.writeTo(response.getOutputStream(), start, end);
+        }
+      } else {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        if (!headRequest) {
+          writeByteRanges(fd, ranges, length, boundary, response.getOutputStream());
+        }
+      }
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
     }
   }
+
+  /**
+   * Lets Tomcat send a locally stored file with sendfile after the request has been processed, so the content is not copied through
+   * the JVM at all.
+   *
+   * @return false if the content is not available as local file or the connector does not support sendfile
+   */
+  private boolean sendLocalFile(FileDownloadWrapper fd, long start, long end, HttpServletRequest request) {
+    Path localFile = fd.getLocalFile();
+    if (localFile == null || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+      return false;
+    }
+    request.setAttribute(SENDFILE_FILENAME, localFile.toAbsolutePath().toString());
+    request.setAttribute(SENDFILE_START, start);
+    // exclusive
+    request.setAttribute(SENDFILE_END, end + 1);
+    return true;
+  }
+
+  private boolean isIfRangeMatching(HttpServletRequest request, String eTag, long lastModified) {
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // weak validators must not be used for ranges
+      return eTag != null && ifRange.equals("\"" + eTag + "\"");
+    }
+    long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+    return lastModified != -1 && ifRangeDate == (lastModified / 1000 * 1000);
+  }
+
+  private boolean isSatisfiable(List<HttpRange> ranges, long length) {
+    long total = 0;
+    for (HttpRange range : ranges) {
+      long start = range.getRangeStart(length);
+      if (start >= length) {
+        return false;
+      }
+      total += range.getRangeEnd(length) - start + 1;
+    }
+    // refuse overlapping multi ranges that add up to more than the whole file
+    return ranges.size() == 1 || total <= length;
+  }
+
+  private void writeByteRanges(FileDownloadWrapper fd, List<HttpRange> ranges, long length, String boundary, OutputStream out)
+      throws IOException {
+    String contentType = fd.getFile().getFormat();
+    for (HttpRange range : ranges) {
+      long start = range.getRangeStart(length);
+      long end = range.getRangeEnd(length);
+      StringBuilder partHeader = new StringBuilder();
+      partHeader.append("\r\n--").append(boundary).append("\r\n");
+      if (contentType != null) {
+        partHeader.append(HttpHeaders.CONTENT_TYPE).append(": ").append(contentType).append("\r\n");
+      }
+      partHeader.append(HttpHeaders.CONTENT_RANGE).append(": bytes ").append(start).append("-").append(end).append("/").append(length);
+      partHeader.append("\r\n\r\n");
+      out.write(partHeader.toString().getBytes(StandardCharsets.US_ASCII));
+      fd.writeTo(out, start, end);
+    }
+    out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+  }
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.elasticsearch.action.search.SearchResponse;
@@ -53,24 +54,15 @@ public class VocabularyController {
   @GetMapping("/ous")
   public ResponseEntity<List<Affiliation>> search(@RequestParam("q") String query) throws IOException, R2d2TechnicalException {
 
-    SearchResponse resp = affiliationSearchService.suggestOUs(query);
-    SearchHit[] hits = resp.getHits().getHits();
-    List<Affiliation> list = Arrays.stream(hits).map(hit -> hit.getSourceAsMap()).map(map -> {
-      Affiliation ou = new Affiliation();
-      ou.setOrganization((String) map.get("name"));
-      ou.setId((String) map.get("id"));
-      return ou;
-    }).collect(Collectors.toList());
-
+    List<Affiliation> list = affiliationSearchService.suggest(query);
     return new ResponseEntity(list, HttpStatus.OK);
   }
 
   @GetMapping("/ous/{id}")
   public ResponseEntity<?> getOU(@PathVariable("id") String id) throws R2d2TechnicalException {
-    SearchResponse resp = affiliationSearchService.ouDetails(id);
-    SearchHit[] hits = resp.getHits().getHits();
-    if (hits.length > 0) {
-      return new ResponseEntity(hits[0].getSourceAsMap(), HttpStatus.OK);
+    Map<String, Object> ou = affiliationSearchService.getOU(id);
+    if (ou != null) {
+      return new ResponseEntity(ou, HttpStatus.OK);
     }
     return null;
   }
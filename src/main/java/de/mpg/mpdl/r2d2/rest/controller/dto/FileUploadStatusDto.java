@@ -0,0 +1,18 @@
+package de.mpg.mpdl.r2d2.rest.controller.dto;
+
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.model.FileUploadStatus;
+
+public class FileUploadStatusDto extends FileUploadStatus {
+
+  private UploadState state;
+
+  public UploadState getState() {
+    return state;
+  }
+
+  public void setState(UploadState state) {
+    this.state = state;
+  }
+
+}
@@ -1,6 +1,8 @@
 package de.mpg.mpdl.r2d2.search.dao;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -59,6 +61,36 @@ public interface GenericDaoEs<E> {
 
   public String update(String id, E entity) throws R2d2TechnicalException;
 
+  /**
+   * replaces only the given top level fields of the object with the given id
+   * 
+   * @param id
+   * @param fields
+   * @param immediate
+   * @return {@link String}
+   */
+  public String updateFields(String id, Map<String, Object> fields, boolean immediate) throws R2d2TechnicalException;
+
+  /**
+   * replaces the given top level fields in all objects matching the query, without loading or sending the whole objects
+   * 
+   * @param query
+   * @param fields
+   * @param immediate
+   * @return number of updated objects
+   */
+  public long updateByQuery(QueryBuilder query, Map<String, Object> fields, boolean immediate) throws R2d2TechnicalException;
+
+  /**
+   * appends the given values to the top level list fields of all objects matching the query, unless they are already contained
+   * 
+   * @param query
+   * @param fields
+   * @param immediate
+   * @return number of updated objects
+   */
+  public long appendByQuery(QueryBuilder query, Map<String, Object> fields, boolean immediate) throws R2d2TechnicalException;
+
   /**
    * deletes the object with the given id in elasticsearch
    * 
@@ -73,6 +105,74 @@ public interface GenericDaoEs<E> {
 
   public long deleteByQuery(QueryBuilder query) throws R2d2TechnicalException;
 
+  /**
+   * creates or replaces the objects for the given ids in bulk requests and, if immediate, refreshes the index once afterwards
+   * 
+   * @param entities
+   * @param immediate
+   */
+  public void createAll(Map<String, E> entities, boolean immediate) throws R2d2TechnicalException;
+
+  public void deleteAll(Collection<String> ids, boolean immediate) throws R2d2TechnicalException;
+
+  /**
+   * brings the given documents up to date in one bulk request: documents are only written if they differ from the indexed ones,
+   * obsolete documents are only deleted if they exist. If nothing changed, the index is neither written nor refreshed.
+   * 
+   * @param entities documents which should exist
+   * @param obsoleteIds documents which should be removed, unless also given in entities
+   * @param immediate
+   * @return number of written and deleted documents
+   */
+  public long synchronize(Map<String, E> entities, Collection<String> obsoleteIds, boolean immediate) throws R2d2TechnicalException;
+
+  public void refresh() throws R2d2TechnicalException;
+
+  /**
+   * writes the objects into the given index, keeping documents which already exist there
+   * 
+   * @param index concrete index, e.g. one being rebuilt behind the alias of this dao
+   * @param entities
+   * @return number of written documents
+   */
+  public long createAllIfAbsent(String index, Map<String, E> entities) throws R2d2TechnicalException;
+
+  /**
+   * writes the objects into the given index, replacing existing documents, and deletes the obsolete documents from it
+   * 
+   * @param index concrete index, e.g. one being rebuilt behind the alias of this dao
+   * @param entities documents which should exist
+   * @param obsoleteIds documents which should be removed, unless also given in entities
+   * @return number of written and deleted documents
+   */
+  public long replaceAll(String index, Map<String, E> entities, Collection<String> obsoleteIds) throws R2d2TechnicalException;
+
+  /**
+   * returns and forgets the ids of all documents which were written, updated or deleted since the shadow index was set or since the
+   * last call. Documents changed by query are those matching the query in the given index.
+   * 
+   * @param index concrete index in which documents changed by query are looked up
+   * @return ids of the changed documents
+   */
+  public Set<String> takeShadowChanges(String index) throws R2d2TechnicalException;
+
+  /**
+   * @return the name (or alias) of the index
+   */
+  public String getIndexName();
+
+  /**
+   * @return a number which changes whenever this dao wrote to the index
+   */
+  public long getGeneration();
+
+  /**
+   * sets an index which receives a copy of all writes while it is rebuilt, null to stop copying
+   * 
+   * @param shadowIndex
+   */
+  public void setShadowIndex(String shadowIndex);
+
 
   /**
    * searches in elasticsearch with a given searchQuery
@@ -91,6 +191,16 @@ public interface GenericDaoEs<E> {
 
   public SearchResponse scrollOn(String scrollId, long scrollTime) throws R2d2TechnicalException;
 
+  /**
+   * opens a point in time on the index, which keeps the state of the index for consistent paging with search_after
+   * 
+   * @param keepAlive in milliseconds
+   * @return the id of the point in time
+   */
+  public String openPointInTime(long keepAlive) throws R2d2TechnicalException;
+
+  public void closePointInTime(String pointInTimeId);
+
 
   /**
    * Retrieves the mapping for the index and transforms it into a map of ElasticSearchIndexField
@@ -4,26 +4,38 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
 import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequestBuilder;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.CreateIndexRequest;
 import org.elasticsearch.client.indices.CreateIndexResponse;
 import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.client.indices.GetIndexResponse;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
 
 @Component
@@ -34,6 +46,9 @@ public class ElasticSearchAdminController {
   @Autowired
   private RestHighLevelClient client;
 
+  @Autowired
+  private ObjectMapper objectMapper;
+
   /**
    * Create a new index
    * 
@@ -98,4 +113,91 @@ public class ElasticSearchAdminController {
     }
   }
 
+  /**
+   * Create a new index named alias_timestamp, which is not yet reachable through the alias
+   * 
+   * @param alias
+   * @return the name of the new index
+   */
+  public String createIndexVersion(String alias, String settings, String mapping) throws R2d2TechnicalException {
+    String name4index = alias + "_" + System.currentTimeMillis();
+    LOGGER.info("Creating elasticsearch index " + name4index + " for alias " + alias);
+    try {
+      CreateIndexRequest createIndexRequest = new CreateIndexRequest(name4index).settings(settings, XContentType.JSON);
+      if (mapping != null) {
+        createIndexRequest.mapping(mapping, XContentType.JSON);
+      }
+      client.indices().create(createIndexRequest, RequestOptions.DEFAULT);
+      return name4index;
+    } catch (IOException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  /**
+   * @param alias
+   * @return the indices the alias points to
+   */
+  public List<String> getIndicesOfAlias(String alias) throws R2d2TechnicalException {
+    try {
+      GetAliasesResponse response = client.indices().getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT);
+      return new ArrayList<>(response.getAliases().keySet());
+    } catch (IOException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  /**
+   * Points the alias to the new index and removes the old indices in one atomic step
+   * 
+   * @param alias
+   * @param newIndex
+   * @param oldIndices
+   */
+  public boolean switchAlias(String alias, String newIndex, Collection<String> oldIndices) throws R2d2TechnicalException {
+    LOGGER.info("Switching alias " + alias + " from " + oldIndices + " to " + newIndex);
+    try {
+      IndicesAliasesRequest request = new IndicesAliasesRequest();
+      request.addAliasAction(AliasActions.add().index(newIndex).alias(alias));
+      for (String oldIndex : oldIndices) {
+        request.addAliasAction(AliasActions.removeIndex().index(oldIndex));
+      }
+      return client.indices().updateAliases(request, RequestOptions.DEFAULT).isAcknowledged();
+    } catch (IOException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  /**
+   * @param index index or alias
+   * @return a value which changes when documents of the index are written or the alias is pointed to another index
+   */
+  public String getIndexFingerprint(String index) throws R2d2TechnicalException {
+    try {
+      Response response = client.getLowLevelClient().performRequest(new Request("GET", "/" + index + "/_stats/docs,indexing"));
+      JsonNode stats = objectMapper.readTree(response.getEntity().getContent());
+      JsonNode primaries = stats.path("_all").path("primaries");
+      List<String> indices = new ArrayList<>();
+      stats.path("indices").fieldNames().forEachRemaining(indices::add);
+      return indices + ":" + primaries.path("docs").path("count").asLong() + ":" + primaries.path("indexing").path("index_total").asLong()
+          + ":" + primaries.path("indexing").path("delete_total").asLong();
+    } catch (IOException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  /**
+   * @param index
+   * @param refreshInterval e.g. -1 to disable refreshes while bulk loading, null to reset to the default
+   */
+  public boolean setRefreshInterval(String index, String refreshInterval) throws R2d2TechnicalException {
+    try {
+      Settings settings = refreshInterval != null ? Settings.builder().put("index.refresh_interval", refreshInterval).build()
+          : Settings.builder().putNull("index.refresh_interval").build();
+      return client.indices().putSettings(new UpdateSettingsRequest(index).settings(settings), RequestOptions.DEFAULT).isAcknowledged();
+    } catch (IOException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
 }
@@ -3,43 +3,76 @@ package de.mpg.mpdl.r2d2.search.es.daoimpl;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.indices.GetMappingsRequest;
 import org.elasticsearch.client.indices.GetMappingsResponse;
 import org.elasticsearch.cluster.metadata.MappingMetadata;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.Scroll;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
 import de.mpg.mpdl.r2d2.search.dao.GenericDaoEs;
@@ -48,6 +81,7 @@ import de.mpg.mpdl.r2d2.search.model.SearchRecord;
 import de.mpg.mpdl.r2d2.search.model.SearchResult;
 import de.mpg.mpdl.r2d2.search.util.ElasticSearchIndexField;
 import de.mpg.mpdl.r2d2.search.util.ElasticSearchIndexField.Type;
+import de.mpg.mpdl.r2d2.util.Utils;
 
 /**
  * ElasticSearchClient enables elasticsearch accessibility
@@ -71,15 +105,76 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
 
   protected Class<E> typeParameterClass;
 
+  // created once, reading with a cached reader saves the lookup of the deserializer for each hit
+  private ObjectReader reader;
+
   public static final int DEFAULT_SEARCH_SIZE = 100;
   public static final int MAX_SEARCH_SIZE = 10000;
   public static final int DEFAULT_SCROLL_TIME = 60000;
 
+  // replaces the given top level fields of the document
+  private static final String UPDATE_FIELDS_SCRIPT = "for (entry in params.fields.entrySet()) { ctx._source[entry.getKey()] = entry.getValue(); }";
+
+  private static final String APPEND_FIELDS_SCRIPT = "for (entry in params.fields.entrySet()) { def list = ctx._source[entry.getKey()]; "
+      + "if (list == null) { ctx._source[entry.getKey()] = [entry.getValue()]; } "
+      + "else if (list.contains(entry.getValue())) { ctx.op = 'noop'; } else { list.add(entry.getValue()); } }";
+
+  @Value("${elasticsearch.bulk.actions:1000}")
+  private int bulkActions;
+
+  @Value("${elasticsearch.bulk.size:5}")
+  private long bulkSizeMb;
+
+  @Value("${elasticsearch.bulk.flushInterval:1000}")
+  private long bulkFlushInterval;
+
+  /**
+   * Collects the writes which don't need to be visible immediately and sends them as bulk requests, when bulkActions or bulkSize are
+   * reached or at the latest after bulkFlushInterval, rejected requests are retried with an exponential backoff. The requests are sent
+   * one after the other and every synchronous write flushes the collected ones first (see {@link #flushPending()}), so all writes to an
+   * index are applied in the order they were made and an older collected write never overwrites a newer synchronous one.
+   */
+  private BulkProcessor bulkProcessor;
+
+  // changed after each write, so results cached for an older generation are known to be outdated
+  private final AtomicLong generation = new AtomicLong();
+
+  // index which is being rebuilt for the alias indexName, receives a copy of all writes until the alias is switched
+  private volatile String shadowIndex;
+
+  // documents changed while the shadow index is set, see takeShadowChanges
+  private final Set<String> shadowChangedIds = ConcurrentHashMap.newKeySet();
+
+  private final ConcurrentLinkedQueue<QueryBuilder> shadowChangedQueries = new ConcurrentLinkedQueue<>();
+
   public ElasticSearchGenericDAOImpl(String indexName, Class<E> typeParameterClass) {
     this.indexName = indexName;
     this.typeParameterClass = typeParameterClass;
   }
 
+  @PostConstruct
+  public void initBulkProcessor() {
+    bulkProcessor = BulkProcessor
+        .builder((request, bulkListener) -> client.bulkAsync(request, RequestOptions.DEFAULT, bulkListener), new BulkListener())
+        .setBulkActions(bulkActions).setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+        .setFlushInterval(TimeValue.timeValueMillis(bulkFlushInterval)).setConcurrentRequests(0)
+        .setBackoffPolicy(BackoffPolicy.exponentialBackoff()).build();
+  }
+
+  @PreDestroy
+  public void closeBulkProcessor() throws InterruptedException {
+    if (!bulkProcessor.awaitClose(30, TimeUnit.SECONDS)) {
+      LOGGER.warn("Pending bulk requests for index " + indexName + " not finished on shutdown");
+    }
+  }
+
+  private ObjectReader getReader() {
+    if (reader == null) {
+      reader = mapper.readerFor(typeParameterClass);
+    }
+    return reader;
+  }
+
   protected JsonNode applyCustomValues(E entity) {
     JsonNode node = mapper.valueToTree(entity);
     return node;
@@ -97,10 +192,12 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
    */
   public String create(String id, E entity) throws R2d2TechnicalException {
     try {
-
-      IndexRequest ir = new IndexRequest(indexName).id(id).source(mapper.writeValueAsBytes(applyCustomValues(entity)), XContentType.JSON);
-      IndexResponse indexResponse = client.index(ir, RequestOptions.DEFAULT);
-      return indexResponse.getId();
+      markChanged(id);
+      byte[] source = mapper.writeValueAsBytes(applyCustomValues(entity));
+      for (String index : getWriteIndices()) {
+        bulkProcessor.add(new IndexRequest(index).id(id).source(source, XContentType.JSON));
+      }
+      return id;
 
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
@@ -118,9 +215,13 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
    */
   public String createImmediately(String id, E entity) throws R2d2TechnicalException {
     try {
-      IndexRequest ir = new IndexRequest(indexName).id(id).source(mapper.writeValueAsBytes(applyCustomValues(entity)), XContentType.JSON)
-          .setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+      flushPending();
+      markChanged(id);
+      byte[] source = mapper.writeValueAsBytes(applyCustomValues(entity));
+      IndexRequest ir = new IndexRequest(indexName).id(id).source(source, XContentType.JSON).setRefreshPolicy(RefreshPolicy.IMMEDIATE);
       IndexResponse indexResponse = client.index(ir, RequestOptions.DEFAULT);
+      mirror(new IndexRequest().id(id).source(source, XContentType.JSON));
+      generation.incrementAndGet();
       return indexResponse.getId();
 
     } catch (Exception e) {
@@ -140,7 +241,7 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
     try {
       GetRequest getRequest = new GetRequest(indexName, id);
       GetResponse getResponse = client.get(getRequest, RequestOptions.DEFAULT);
-      return mapper.readValue(getResponse.getSourceAsBytes(), typeParameterClass);
+      return Utils.readSource(getReader(), getResponse.getSourceInternal());
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
     }
@@ -157,9 +258,12 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
    */
   public String updateImmediately(String id, E entity) throws R2d2TechnicalException {
     try {
+      flushPending();
+      markChanged(id);
       UpdateRequest updateRequest = new UpdateRequest(indexName, id).setRefreshPolicy(RefreshPolicy.IMMEDIATE);
       updateRequest.doc(mapper.writeValueAsBytes(entity), XContentType.JSON);
       UpdateResponse updateResponse = client.update(updateRequest, RequestOptions.DEFAULT);
+      generation.incrementAndGet();
       return Long.toString(updateResponse.getVersion());
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
@@ -169,13 +273,65 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
 
   public String update(String id, E entity) throws R2d2TechnicalException {
     try {
+      flushPending();
+      markChanged(id);
       UpdateRequest updateRequest = new UpdateRequest(indexName, id);
+      updateRequest.doc(mapper.writeValueAsBytes(entity), XContentType.JSON);
+      UpdateResponse updateResponse = client.update(updateRequest, RequestOptions.DEFAULT);
+      generation.incrementAndGet();
+      return Long.toString(updateResponse.getVersion());
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+
+  }
+
+  public String updateFields(String id, Map<String, Object> fields, boolean immediate) throws R2d2TechnicalException {
+    try {
+      flushPending();
+      markChanged(id);
+      UpdateRequest updateRequest = new UpdateRequest(indexName, id).doc(fields);
+      if (immediate) {
+        updateRequest.setRefreshPolicy(RefreshPolicy.IMMEDIATE);
+      }
       UpdateResponse updateResponse = client.update(updateRequest, RequestOptions.DEFAULT);
+      generation.incrementAndGet();
       return Long.toString(updateResponse.getVersion());
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
     }
+  }
+
+  public long updateByQuery(QueryBuilder query, Map<String, Object> fields, boolean immediate) throws R2d2TechnicalException {
+    return updateByQuery(query, UPDATE_FIELDS_SCRIPT, fields, immediate);
+  }
 
+  public long appendByQuery(QueryBuilder query, Map<String, Object> fields, boolean immediate) throws R2d2TechnicalException {
+    return updateByQuery(query, APPEND_FIELDS_SCRIPT, fields, immediate);
+  }
+
+  private long updateByQuery(QueryBuilder query, String script, Map<String, Object> fields, boolean immediate)
+      throws R2d2TechnicalException {
+    try {
+      flushPending();
+      markChanged(query);
+      UpdateByQueryRequest updateByQueryRequest = new UpdateByQueryRequest(getWriteIndices()).setQuery(query)
+          .setScript(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, script, Collections.singletonMap("fields", fields)))
+          .setRefresh(immediate);
+      // a document changed in the meantime was rewritten from the database and is already up to date
+      updateByQueryRequest.setConflicts("proceed");
+      BulkByScrollResponse resp = client.updateByQuery(updateByQueryRequest, RequestOptions.DEFAULT);
+      if (!resp.getBulkFailures().isEmpty() || !resp.getSearchFailures().isEmpty()) {
+        throw new R2d2TechnicalException("Update by query on index " + indexName + " failed: " + resp.getBulkFailures() + " "
+            + resp.getSearchFailures());
+      }
+      generation.incrementAndGet();
+      return resp.getUpdated();
+    } catch (R2d2TechnicalException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
   }
 
   /**
@@ -187,8 +343,12 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
    */
   public String deleteImmediatly(String id) throws R2d2TechnicalException {
     try {
+      flushPending();
+      markChanged(id);
       DeleteRequest deleteRequest = new DeleteRequest(indexName, id).setRefreshPolicy(RefreshPolicy.IMMEDIATE);
       DeleteResponse deleteResponse = client.delete(deleteRequest, RequestOptions.DEFAULT);
+      mirror(new DeleteRequest().id(id));
+      generation.incrementAndGet();
       return deleteResponse.getId();
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
@@ -204,9 +364,249 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
    */
   public String delete(String id) throws R2d2TechnicalException {
     try {
-      DeleteRequest deleteRequest = new DeleteRequest(indexName, id);
-      DeleteResponse deleteResponse = client.delete(deleteRequest, RequestOptions.DEFAULT);
-      return deleteResponse.getId();
+      markChanged(id);
+      for (String index : getWriteIndices()) {
+        bulkProcessor.add(new DeleteRequest(index, id));
+      }
+      return id;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  public void createAll(Map<String, E> entities, boolean immediate) throws R2d2TechnicalException {
+    try {
+      flushPending();
+      markChanged(entities.keySet());
+      BulkWriter writer = new BulkWriter(false);
+      for (Map.Entry<String, E> entry : entities.entrySet()) {
+        byte[] source = mapper.writeValueAsBytes(applyCustomValues(entry.getValue()));
+        for (String index : getWriteIndices()) {
+          writer.add(new IndexRequest(index).id(entry.getKey()).source(source, XContentType.JSON));
+        }
+      }
+      writer.finish(immediate);
+    } catch (R2d2TechnicalException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  public void deleteAll(Collection<String> ids, boolean immediate) throws R2d2TechnicalException {
+    try {
+      flushPending();
+      markChanged(ids);
+      BulkWriter writer = new BulkWriter(false);
+      for (String id : ids) {
+        for (String index : getWriteIndices()) {
+          writer.add(new DeleteRequest(index, id));
+        }
+      }
+      writer.finish(immediate);
+    } catch (R2d2TechnicalException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  public long synchronize(Map<String, E> entities, Collection<String> obsoleteIds, boolean immediate) throws R2d2TechnicalException {
+    try {
+      flushPending();
+      Set<String> ids = new LinkedHashSet<>(entities.keySet());
+      ids.addAll(obsoleteIds);
+      if (ids.isEmpty()) {
+        return 0;
+      }
+      markChanged(ids);
+
+      // realtime, so documents written but not yet refreshed are seen as well
+      MultiGetRequest multiGetRequest = new MultiGetRequest();
+      for (String id : ids) {
+        multiGetRequest.add(indexName, id);
+      }
+      Map<String, JsonNode> indexed = new HashMap<>();
+      for (MultiGetItemResponse item : client.mget(multiGetRequest, RequestOptions.DEFAULT)) {
+        if (item.isFailed()) {
+          throw new R2d2TechnicalException("Could not get document " + item.getId() + " from index " + indexName, item.getFailure()
+              .getFailure());
+        }
+        if (item.getResponse().isExists()) {
+          indexed.put(item.getId(), mapper.readTree(item.getResponse().getSourceAsBytes()));
+        }
+      }
+
+      BulkWriter writer = new BulkWriter(false);
+      for (Map.Entry<String, E> entry : entities.entrySet()) {
+        byte[] source = mapper.writeValueAsBytes(applyCustomValues(entry.getValue()));
+        if (!mapper.readTree(source).equals(indexed.get(entry.getKey()))) {
+          for (String index : getWriteIndices()) {
+            writer.add(new IndexRequest(index).id(entry.getKey()).source(source, XContentType.JSON));
+          }
+        }
+      }
+      for (String id : obsoleteIds) {
+        if (!entities.containsKey(id) && indexed.containsKey(id)) {
+          for (String index : getWriteIndices()) {
+            writer.add(new DeleteRequest(index, id));
+          }
+        }
+      }
+      writer.finish(immediate);
+      return writer.written;
+    } catch (R2d2TechnicalException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  public long createAllIfAbsent(String index, Map<String, E> entities) throws R2d2TechnicalException {
+    try {
+      flushPending();
+      BulkWriter writer = new BulkWriter(true);
+      for (Map.Entry<String, E> entry : entities.entrySet()) {
+        writer.add(new IndexRequest(index).id(entry.getKey()).source(mapper.writeValueAsBytes(applyCustomValues(entry.getValue())),
+            XContentType.JSON).opType(DocWriteRequest.OpType.CREATE));
+      }
+      writer.finish(false);
+      return writer.written;
+    } catch (R2d2TechnicalException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+  public long replaceAll(String index, Map<String, E> entities, Collection<String> obsoleteIds) throws R2d2TechnicalException {
+    try {
+      flushPending();
+      BulkWriter writer = new BulkWriter(false);
+      for (Map.Entry<String, E> entry : entities.entrySet()) {
+        writer.add(new IndexRequest(index).id(entry.getKey()).source(mapper.writeValueAsBytes(applyCustomValues(entry.getValue())),
+            XContentType.JSON));
+      }
+      for (String id : obsoleteIds) {
+        if (!entities.containsKey(id)) {
+          writer.add(new DeleteRequest(index, id));
+        }
+      }
+      writer.finish(false);
+      return writer.written;
+    } catch (R2d2TechnicalException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  public Set<String> takeShadowChanges(String index) throws R2d2TechnicalException {
+    try {
+      // collected writes are marked already, but may not be applied yet
+      flushPending();
+      Set<String> ids = new HashSet<>();
+      for (Iterator<String> it = shadowChangedIds.iterator(); it.hasNext();) {
+        ids.add(it.next());
+        it.remove();
+      }
+      if (!shadowChangedQueries.isEmpty()) {
+        // refreshes may be disabled on the given index
+        client.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+        QueryBuilder query;
+        while ((query = shadowChangedQueries.poll()) != null) {
+          ids.addAll(findIds(index, query));
+        }
+      }
+      return ids;
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  private Set<String> findIds(String index, QueryBuilder query) throws IOException {
+    Set<String> ids = new HashSet<>();
+    Scroll scroll = new Scroll(TimeValue.timeValueMillis(DEFAULT_SCROLL_TIME));
+    SearchResponse response = client.search(
+        new SearchRequest(index).scroll(scroll).source(new SearchSourceBuilder().query(query).fetchSource(false).size(MAX_SEARCH_SIZE)),
+        RequestOptions.DEFAULT);
+    try {
+      while (response.getHits().getHits().length > 0) {
+        for (SearchHit hit : response.getHits().getHits()) {
+          ids.add(hit.getId());
+        }
+        response = client.scroll(new SearchScrollRequest(response.getScrollId()).scroll(scroll), RequestOptions.DEFAULT);
+      }
+    } finally {
+      ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+      clearScrollRequest.addScrollId(response.getScrollId());
+      client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+    }
+    return ids;
+  }
+
+
+  public String getIndexName() {
+    return indexName;
+  }
+
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  public void setShadowIndex(String shadowIndex) {
+    shadowChangedIds.clear();
+    shadowChangedQueries.clear();
+    this.shadowIndex = shadowIndex;
+    // the alias may have been switched to the rebuilt index
+    generation.incrementAndGet();
+  }
+
+  private String[] getWriteIndices() {
+    String shadow = shadowIndex;
+    return shadow != null ? new String[] {indexName, shadow} : new String[] {indexName};
+  }
+
+  /**
+   * Copies a single write, which was already sent to indexName, to the index being rebuilt
+   */
+  private void mirror(DocWriteRequest<?> request) {
+    String shadow = shadowIndex;
+    if (shadow != null) {
+      request.index(shadow);
+      bulkProcessor.add(request);
+    }
+  }
+
+  private void markChanged(String id) {
+    if (shadowIndex != null) {
+      shadowChangedIds.add(id);
+    }
+  }
+
+  private void markChanged(Collection<String> ids) {
+    if (shadowIndex != null) {
+      shadowChangedIds.addAll(ids);
+    }
+  }
+
+  private void markChanged(QueryBuilder query) {
+    if (shadowIndex != null) {
+      shadowChangedQueries.add(query);
+    }
+  }
+
+  /**
+   * Sends the writes collected by the bulk processor and waits until they are applied, so a following synchronous write to the same
+   * document is applied after them.
+   */
+  private void flushPending() {
+    bulkProcessor.flush();
+  }
+
+  public void refresh() throws R2d2TechnicalException {
+    try {
+      client.indices().refresh(new RefreshRequest(indexName), RequestOptions.DEFAULT);
+      generation.incrementAndGet();
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
     }
@@ -214,8 +614,11 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
 
   public long deleteByQuery(QueryBuilder query) throws R2d2TechnicalException {
     try {
-      DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(indexName).setQuery(query);
+      flushPending();
+      markChanged(query);
+      DeleteByQueryRequest deleteByQueryRequest = new DeleteByQueryRequest(getWriteIndices()).setQuery(query);
       BulkByScrollResponse resp = client.deleteByQuery(deleteByQueryRequest, RequestOptions.DEFAULT);
+      generation.incrementAndGet();
       return resp.getDeleted();
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
@@ -276,7 +679,14 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
   public SearchResponse searchDetailed(SearchSourceBuilder ssb, long scrollTime) throws R2d2TechnicalException {
 
     try {
-      SearchRequest searchRequest = new SearchRequest(indexName).source(ssb);
+      SearchRequest searchRequest;
+      if (ssb.pointInTimeBuilder() != null) {
+        // the point in time already determines the index
+        searchRequest = new SearchRequest().source(ssb);
+        searchRequest.setCcsMinimizeRoundtrips(false);
+      } else {
+        searchRequest = new SearchRequest(indexName).source(ssb);
+      }
 
       if (scrollTime != -1) {
         searchRequest.scroll(new Scroll(new TimeValue(scrollTime)));
@@ -319,6 +729,32 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
 
   }
 
+  public String openPointInTime(long keepAlive) throws R2d2TechnicalException {
+
+    try {
+      Request request = new Request("POST", "/" + indexName + "/_pit");
+      request.addParameter("keep_alive", keepAlive + "ms");
+      Response response = client.getLowLevelClient().performRequest(request);
+      return mapper.readTree(response.getEntity().getContent()).get("id").asText();
+    } catch (Exception e) {
+      throw new R2d2TechnicalException(e.getMessage(), e);
+    }
+
+  }
+
+  public void closePointInTime(String pointInTimeId) {
+
+    try {
+      Request request = new Request("DELETE", "/_pit");
+      request.setJsonEntity(mapper.writeValueAsString(Collections.singletonMap("id", pointInTimeId)));
+      client.getLowLevelClient().performRequest(request);
+    } catch (Exception e) {
+      // expires anyway after its keep alive
+      LOGGER.debug("Could not close point in time", e);
+    }
+
+  }
+
   public SearchResult<E> getSearchRetrieveResponseFromElasticSearchResponse(SearchResponse sr, Class<E> clazz) throws IOException {
     SearchResult<E> srrVO = new SearchResult<E>();
     // srrVO.setOriginalResponse(sr);
@@ -327,11 +763,12 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
 
     List<SearchRecord<E>> hitList = new ArrayList<>();
     srrVO.setHits(hitList);
+    ObjectReader reader = clazz.equals(typeParameterClass) ? getReader() : mapper.readerFor(clazz);
     for (SearchHit hit : sr.getHits().getHits()) {
       SearchRecord<E> srr = new SearchRecord<E>();
       hitList.add(srr);
 
-      E data = mapper.readValue(hit.getSourceAsString(), clazz);
+      E data = Utils.readSource(reader, hit.getSourceRef());
 
       srr.setSource(data);
       srr.setId(hit.getId());
@@ -374,4 +811,92 @@ public abstract class ElasticSearchGenericDAOImpl<E> implements GenericDaoEs<E>
     return new HashMap<String, ElasticSearchIndexField>();
   }
 
+  /**
+   * Sends the writes of one logical operation synchronously in bulk requests of at most bulkActions or bulkSize. Items rejected by a
+   * busy cluster are retried with an exponential backoff, all other failed items are reported after the remaining requests were sent.
+   * The index is refreshed once at the end instead of per document.
+   */
+  private class BulkWriter {
+
+    // documents which already exist are left as they are when creating only if absent
+    private final boolean ignoreConflicts;
+
+    private BulkRequest bulkRequest = new BulkRequest();
+
+    private final List<String> failures = new ArrayList<>();
+
+    private long written;
+
+    BulkWriter(boolean ignoreConflicts) {
+      this.ignoreConflicts = ignoreConflicts;
+    }
+
+    void add(DocWriteRequest<?> request) throws IOException, InterruptedException {
+      bulkRequest.add(request);
+      if (bulkRequest.numberOfActions() >= bulkActions || bulkRequest.estimatedSizeInBytes() >= bulkSizeMb * 1024 * 1024) {
+        send();
+      }
+    }
+
+    void finish(boolean immediate) throws IOException, InterruptedException, R2d2TechnicalException {
+      send();
+      if (immediate && written > 0) {
+        refresh();
+      }
+      if (!failures.isEmpty()) {
+        throw new R2d2TechnicalException(failures.size() + " document(s) could not be written to index " + indexName + ": "
+            + failures.subList(0, Math.min(10, failures.size())));
+      }
+    }
+
+    private void send() throws IOException, InterruptedException {
+      Iterator<TimeValue> backoff = BackoffPolicy.exponentialBackoff().iterator();
+      while (bulkRequest.numberOfActions() > 0) {
+        BulkResponse response = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+        generation.incrementAndGet();
+        BulkRequest retry = new BulkRequest();
+        for (BulkItemResponse item : response.getItems()) {
+          if (!item.isFailed()) {
+            written++;
+          } else if (ignoreConflicts && RestStatus.CONFLICT.equals(item.status())) {
+            continue;
+          } else if (RestStatus.TOO_MANY_REQUESTS.equals(item.status()) && backoff.hasNext()) {
+            retry.add(bulkRequest.requests().get(item.getItemId()));
+          } else {
+            failures.add(item.getId() + " (" + item.getFailureMessage() + ")");
+          }
+        }
+        if (retry.numberOfActions() > 0) {
+          Thread.sleep(backoff.next().millis());
+        }
+        bulkRequest = retry;
+      }
+    }
+  }
+
+  private class BulkListener implements BulkProcessor.Listener {
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+      LOGGER.debug("Sending bulk request with " + request.numberOfActions() + " actions to index " + indexName);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+      generation.incrementAndGet();
+      if (response.hasFailures()) {
+        for (BulkItemResponse item : response.getItems()) {
+          if (item.isFailed()) {
+            LOGGER.error("Could not write document " + item.getId() + " to index " + indexName + ": " + item.getFailureMessage());
+          }
+        }
+      }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+      LOGGER.error("Bulk request with " + request.numberOfActions() + " actions to index " + indexName + " failed", failure);
+    }
+  }
+
 }
@@ -0,0 +1,60 @@
+package de.mpg.mpdl.r2d2.search.model;
+
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
+
+/**
+ * Facets which can be requested together with a dataset search. Each is computed as aggregation in the search request and returned
+ * under its name in {@link SearchResult#getFacets()}.
+ */
+public enum DatasetFacet {
+
+  GENRES("genres", "metadata.genres.raw"),
+  KEYWORDS("keywords", "metadata.keywords.raw"),
+  STUDY_TYPES("studyTypes", "metadata.studyTypes"),
+  LICENSE("license", "metadata.license.name.raw"),
+  STATE("state", "state"),
+  // publication year, drafts are not counted
+  YEAR("year", "publicationDate");
+
+  private final String name;
+
+  private final String field;
+
+  private DatasetFacet(String name, String field) {
+    this.name = name;
+    this.field = field;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  /**
+   * @param size maximum number of values of a terms facet, ordered by count
+   */
+  public AggregationBuilder toAggregation(int size) {
+    if (this == YEAR) {
+      return AggregationBuilders.dateHistogram(name).field(field).calendarInterval(DateHistogramInterval.YEAR).format("yyyy")
+          .minDocCount(1);
+    }
+    return AggregationBuilders.terms(name).field(field).size(size);
+  }
+
+  public static DatasetFacet fromName(String name) throws ValidationException {
+    for (DatasetFacet facet : values()) {
+      if (facet.name.equals(name)) {
+        return facet;
+      }
+    }
+    throw new ValidationException("Unknown facet " + name);
+  }
+
+}
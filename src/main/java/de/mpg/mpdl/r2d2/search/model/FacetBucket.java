@@ -0,0 +1,32 @@
+package de.mpg.mpdl.r2d2.search.model;
+
+public class FacetBucket {
+
+  private String value;
+
+  private long count;
+
+  public FacetBucket() {}
+
+  public FacetBucket(String value, long count) {
+    this.value = value;
+    this.count = count;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public void setValue(String value) {
+    this.value = value;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public void setCount(long count) {
+    this.count = count;
+  }
+
+}
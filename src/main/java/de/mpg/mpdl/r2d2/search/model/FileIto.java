@@ -36,6 +36,9 @@ public class FileIto {
   private String checksum;
 
 
+  private String sha256;
+
+
   private String format;
 
 
@@ -111,6 +114,14 @@ public class FileIto {
     this.checksum = checksum;
   }
 
+  public String getSha256() {
+    return sha256;
+  }
+
+  public void setSha256(String sha256) {
+    this.sha256 = sha256;
+  }
+
   public String getFormat() {
     return format;
   }
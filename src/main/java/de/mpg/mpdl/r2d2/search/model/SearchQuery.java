@@ -4,6 +4,8 @@ import de.mpg.mpdl.r2d2.search.es.daoimpl.ElasticSearchGenericDAOImpl;
 
 public class SearchQuery {
 
+  public static final String CURSOR_START = "*";
+
   private String query;
 
   private String sort;
@@ -16,6 +18,8 @@ public class SearchQuery {
 
   private boolean scroll = false;
 
+  private String cursor;
+
   public String getQuery() {
     return query;
   }
@@ -64,4 +68,15 @@ public class SearchQuery {
     this.scrollId = scrollId;
   }
 
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * @param cursor {@link #CURSOR_START} to start paging with search_after, or the cursor returned with the previous page
+   */
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
 }
@@ -1,6 +1,7 @@
 package de.mpg.mpdl.r2d2.search.model;
 
 import java.util.List;
+import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
@@ -12,8 +13,14 @@ public class SearchResult<T> {
   @JsonProperty("scroll_id")
   private String scrollId;
 
+  // to be passed to the next request, not set on the last page
+  private String cursor;
+
   private List<SearchRecord<T>> hits;
 
+  // values and counts per requested facet
+  private Map<String, List<FacetBucket>> facets;
+
   public int getTotal() {
     return total;
   }
@@ -30,6 +37,14 @@ public class SearchResult<T> {
     this.scrollId = scrollId;
   }
 
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
   public List<SearchRecord<T>> getHits() {
     return hits;
   }
@@ -38,4 +53,12 @@ public class SearchResult<T> {
     this.hits = hits;
   }
 
+  public Map<String, List<FacetBucket>> getFacets() {
+    return facets;
+  }
+
+  public void setFacets(Map<String, List<FacetBucket>> facets) {
+    this.facets = facets;
+  }
+
 }
@@ -1,8 +1,29 @@
 package de.mpg.mpdl.r2d2.search.service;
 
+import java.util.Collection;
+import java.util.Map;
+
+import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
+import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
+import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.rest.controller.dto.DatasetVersionDto;
+import de.mpg.mpdl.r2d2.search.model.DatasetFacet;
 import de.mpg.mpdl.r2d2.search.model.DatasetVersionIto;
+import de.mpg.mpdl.r2d2.search.model.SearchQuery;
+import de.mpg.mpdl.r2d2.search.model.SearchResult;
 
 public interface DatasetSearchService extends GenericSearchService<DatasetVersionIto> {
 
+  /**
+   * Searches datasets and computes the given facets over all matching datasets in the same request.
+   */
+  public SearchResult<DatasetVersionIto> search(SearchQuery sq, Collection<DatasetFacet> facets, boolean mineOnly, R2D2Principal principal)
+      throws R2d2TechnicalException, AuthorizationException, ValidationException;
+
+  /**
+   * @return hits, misses and size of the cache for searches without login
+   */
+  public Map<String, Object> getCacheStatistics();
+
 }
@@ -5,6 +5,7 @@ import org.elasticsearch.search.builder.SearchSourceBuilder;
 
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
 import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.search.model.SearchQuery;
 import de.mpg.mpdl.r2d2.search.model.SearchResult;
@@ -13,7 +14,7 @@ public interface GenericSearchService<E> {
 
 
   public SearchResult<E> search(SearchQuery sq, boolean mineOnly, R2D2Principal principal)
-      throws R2d2TechnicalException, AuthorizationException;
+      throws R2d2TechnicalException, AuthorizationException, ValidationException;
 
   public SearchResponse searchDetailed(SearchSourceBuilder ssb, long scrollTime, boolean mineOnly, R2D2Principal principal)
       throws R2d2TechnicalException, AuthorizationException;
@@ -1,16 +1,28 @@
 package de.mpg.mpdl.r2d2.search.service.impl;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.MultiMatchQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.TermQueryBuilder;
+import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
 import de.mpg.mpdl.r2d2.model.Affiliation;
@@ -37,13 +49,28 @@ public class AffiliationSearchServiceImpl extends GenericSearchServiceImpl<Affil
   @Value("${index.affiliation.id.field}")
   String id_field;
 
+  @Value("${r2d2.affiliation.refreshInterval:3600000}")
+  private long refreshInterval;
+
+  private static final int SUGGESTION_SIZE = 10;
+
   @Autowired
   AffiliationDaoEs affiliationDaoEs;
 
+  @Autowired
+  private AffiliationSuggestionIndex suggestionIndex;
+
+  private Cache<String, Map<String, Object>> ouCache;
+
   public AffiliationSearchServiceImpl() {
     super(Affiliation.class);
   }
 
+  @PostConstruct
+  public void initOuCache() {
+    ouCache = CacheBuilder.newBuilder().maximumSize(1000).expireAfterWrite(refreshInterval, TimeUnit.MILLISECONDS).build();
+  }
+
   @Override
   protected GenericDaoEs<Affiliation> getIndexDao() {
     return affiliationDaoEs;
@@ -59,6 +86,39 @@ public class AffiliationSearchServiceImpl extends GenericSearchServiceImpl<Affil
     return "upload";
   }
 
+  /**
+   * Suggestions for the affiliation autocomplete, from memory if the suggestion index is loaded and knows matching affiliations,
+   * otherwise from elasticsearch.
+   */
+  public List<Affiliation> suggest(String query) throws R2d2TechnicalException {
+    List<Affiliation> suggestions = suggestionIndex.suggest(query, SUGGESTION_SIZE);
+    if (suggestions != null && !suggestions.isEmpty()) {
+      return suggestions;
+    }
+    SearchHit[] hits = suggestOUs(query).getHits().getHits();
+    return Arrays.stream(hits).map(hit -> hit.getSourceAsMap()).map(map -> {
+      Affiliation ou = new Affiliation();
+      ou.setOrganization((String) map.get("name"));
+      ou.setId((String) map.get("id"));
+      return ou;
+    }).collect(Collectors.toList());
+  }
+
+  /**
+   * @return the indexed document of the affiliation, null if unknown
+   */
+  public Map<String, Object> getOU(String id) throws R2d2TechnicalException {
+    Map<String, Object> ou = ouCache.getIfPresent(id);
+    if (ou == null) {
+      SearchHit[] hits = ouDetails(id).getHits().getHits();
+      if (hits.length > 0) {
+        ou = hits[0].getSourceAsMap();
+        ouCache.put(id, ou);
+      }
+    }
+    return ou;
+  }
+
   public SearchResponse suggestOUs(String query) throws R2d2TechnicalException {
     TermQueryBuilder tqb = QueryBuilders.termQuery(parent_field, parent_value);
     MultiMatchQueryBuilder mmqb = QueryBuilders.multiMatchQuery(query, matches);
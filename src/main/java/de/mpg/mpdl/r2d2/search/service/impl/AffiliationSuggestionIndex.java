@@ -0,0 +1,228 @@
+package de.mpg.mpdl.r2d2.search.service.impl;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.model.Affiliation;
+import de.mpg.mpdl.r2d2.search.dao.AffiliationDaoEs;
+import de.mpg.mpdl.r2d2.search.es.connector.ElasticSearchAdminController;
+
+/**
+ * In memory prefix index over the names, acronyms and labels of the organizations in the affiliation index, which answers the
+ * suggestions of the affiliation autocomplete without a request to elasticsearch. It is loaded on startup and loaded again in the
+ * background if the affiliation index changed, which is checked every r2d2.affiliation.refreshInterval milliseconds. Searches are
+ * replaced atomically, so suggestions are served from the previous state while loading.
+ */
+@Component
+public class AffiliationSuggestionIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AffiliationSuggestionIndex.class);
+
+  private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+  private static final int LOAD_BATCH_SIZE = 5000;
+
+  private static final long SCROLL_TIME = 60000;
+
+  @Value("${r2d2.affiliation.cache.enabled:true}")
+  private boolean enabled;
+
+  @Value("${index.affiliation.parent.value}")
+  private String parentValue;
+
+  @Autowired
+  private AffiliationDaoEs affiliationDao;
+
+  @Autowired
+  private ElasticSearchAdminController esAdminController;
+
+  private volatile Snapshot snapshot;
+
+  private String fingerprint;
+
+  @Scheduled(fixedDelayString = "${r2d2.affiliation.refreshInterval:3600000}")
+  public void refresh() {
+    if (!enabled) {
+      return;
+    }
+    try {
+      String current = esAdminController.getIndexFingerprint(affiliationDao.getIndexName());
+      if (!current.equals(fingerprint)) {
+        long start = System.currentTimeMillis();
+        snapshot = load();
+        fingerprint = current;
+        LOGGER.info("Loaded " + snapshot.ids.length + " affiliations for suggestions in " + (System.currentTimeMillis() - start) + " ms");
+      }
+    } catch (Exception e) {
+      LOGGER.warn("Could not load affiliations for suggestions, suggesting from elasticsearch", e);
+    }
+  }
+
+  /**
+   * @param query
+   * @param size
+   * @return affiliations with a name, acronym or label containing words starting with each word of the query, those belonging to the
+   *         parent organization first. null if the index is not loaded.
+   */
+  public List<Affiliation> suggest(String query, int size) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return null;
+    }
+    Set<String> words = tokenize(query);
+    if (words.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    BitSet matches = null;
+    for (String word : words) {
+      BitSet wordMatches = new BitSet(current.ids.length);
+      int i = Arrays.binarySearch(current.tokens, word);
+      for (i = i < 0 ? -i - 1 : i; i < current.tokens.length && current.tokens[i].startsWith(word); i++) {
+        for (int entry : current.postings[i]) {
+          wordMatches.set(entry);
+        }
+      }
+      if (matches == null) {
+        matches = wordMatches;
+      } else {
+        matches.and(wordMatches);
+      }
+    }
+
+    String normalizedQuery = normalize(query).trim();
+    Comparator<Integer> ranking = Comparator.<Integer, Boolean>comparing(entry -> !current.parent[entry])
+        .thenComparing(entry -> !current.normalizedNames[entry].startsWith(normalizedQuery))
+        .thenComparingInt(entry -> current.names[entry].length()).thenComparing(entry -> current.names[entry]);
+    return matches.stream().boxed().sorted(ranking).limit(size).map(entry -> {
+      Affiliation ou = new Affiliation();
+      ou.setId(current.ids[entry]);
+      ou.setOrganization(current.names[entry]);
+      return ou;
+    }).collect(Collectors.toList());
+  }
+
+  private Snapshot load() throws R2d2TechnicalException {
+    List<String> ids = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<Boolean> parent = new ArrayList<>();
+    Map<String, List<Integer>> postings = new HashMap<>();
+
+    SearchSourceBuilder ssb = new SearchSourceBuilder().size(LOAD_BATCH_SIZE)
+        .fetchSource(new String[] {"id", "name", "acronyms", "labels.label", "relationships.label"}, null).sort("_doc");
+    SearchResponse resp = affiliationDao.searchDetailed(ssb, SCROLL_TIME);
+    while (resp.getHits().getHits().length > 0) {
+      for (SearchHit hit : resp.getHits().getHits()) {
+        Map<String, Object> source = hit.getSourceAsMap();
+        if (!(source.get("id") instanceof String) || !(source.get("name") instanceof String)) {
+          continue;
+        }
+        int entry = ids.size();
+        ids.add((String) source.get("id"));
+        names.add((String) source.get("name"));
+        parent.add(values(source.get("relationships"), "label").contains(parentValue));
+
+        Set<String> tokens = tokenize((String) source.get("name"));
+        for (Object acronym : values(source.get("acronyms"), null)) {
+          tokens.addAll(tokenize(acronym.toString()));
+        }
+        for (Object label : values(source.get("labels"), "label")) {
+          tokens.addAll(tokenize(label.toString()));
+        }
+        for (String token : tokens) {
+          postings.computeIfAbsent(token, t -> new ArrayList<>()).add(entry);
+        }
+      }
+      resp = affiliationDao.scrollOn(resp.getScrollId(), SCROLL_TIME);
+    }
+
+    Snapshot loaded = new Snapshot();
+    loaded.ids = ids.toArray(new String[0]);
+    loaded.names = names.toArray(new String[0]);
+    loaded.normalizedNames = names.stream().map(AffiliationSuggestionIndex::normalize).toArray(String[]::new);
+    loaded.parent = new boolean[parent.size()];
+    for (int i = 0; i < loaded.parent.length; i++) {
+      loaded.parent[i] = parent.get(i);
+    }
+    loaded.tokens = postings.keySet().toArray(new String[0]);
+    Arrays.sort(loaded.tokens);
+    loaded.postings = new int[loaded.tokens.length][];
+    for (int i = 0; i < loaded.tokens.length; i++) {
+      loaded.postings[i] = postings.get(loaded.tokens[i]).stream().mapToInt(Integer::intValue).toArray();
+    }
+    return loaded;
+  }
+
+  /**
+   * @return the values of a field, which may be a single value or a list, or of a property of the objects in it
+   */
+  private static List<Object> values(Object field, String property) {
+    Collection<?> items = field instanceof Collection ? (Collection<?>) field : field != null ? Collections.singleton(field) : Collections.emptySet();
+    List<Object> values = new ArrayList<>();
+    for (Object item : items) {
+      Object value = property != null && item instanceof Map ? ((Map<?, ?>) item).get(property) : item;
+      if (value != null) {
+        values.add(value);
+      }
+    }
+    return values;
+  }
+
+  private static String normalize(String text) {
+    return DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+  }
+
+  private static Set<String> tokenize(String text) {
+    Set<String> tokens = new LinkedHashSet<>();
+    for (String token : TOKEN_SEPARATOR.split(normalize(text))) {
+      if (!token.isEmpty()) {
+        tokens.add(token);
+      }
+    }
+    return tokens;
+  }
+
+  private static class Snapshot {
+
+    private String[] ids;
+
+    private String[] names;
+
+    private String[] normalizedNames;
+
+    // belongs to the parent organization
+    private boolean[] parent;
+
+    // sorted distinct words and the entries containing each of them
+    private String[] tokens;
+
+    private int[][] postings;
+  }
+
+}
@@ -3,9 +3,23 @@ package de.mpg.mpdl.r2d2.search.service.impl;
 import de.mpg.mpdl.r2d2.search.dao.DatasetVersionDaoEs;
 import de.mpg.mpdl.r2d2.search.dao.GenericDaoEs;
 import de.mpg.mpdl.r2d2.search.es.daoimpl.DatasetVersionDaoImpl;
+import de.mpg.mpdl.r2d2.search.model.DatasetFacet;
 import de.mpg.mpdl.r2d2.search.model.DatasetVersionIto;
+import de.mpg.mpdl.r2d2.search.model.SearchQuery;
+import de.mpg.mpdl.r2d2.search.model.SearchResult;
 import de.mpg.mpdl.r2d2.search.service.DatasetSearchService;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -14,10 +28,16 @@ import org.elasticsearch.script.Script;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
 import de.mpg.mpdl.r2d2.model.Dataset;
 import de.mpg.mpdl.r2d2.model.DatasetVersion;
 import de.mpg.mpdl.r2d2.model.aa.Grant;
@@ -32,10 +52,95 @@ public class DatasetSearchServiceImpl extends GenericSearchServiceImpl<DatasetVe
   @Qualifier("PublicDatasetVersionDaoImpl")
   private DatasetVersionDaoEs datasetDao;
 
+  @Value("${r2d2.search.facetSize:20}")
+  private int facetSize;
+
+  @Value("${r2d2.search.cache.enabled:true}")
+  private boolean cacheEnabled;
+
+  @Value("${r2d2.search.cache.maxHits:10000}")
+  private long cacheMaxHits;
+
+  @Value("${r2d2.search.cache.ttl:60}")
+  private long cacheTtl;
+
+  // results of searches without login, which are the same for all visitors
+  private Cache<List<Object>, SearchResult<DatasetVersionIto>> anonymousCache;
+
+  private volatile long cachedGeneration;
+
   public DatasetSearchServiceImpl() {
     super(DatasetVersionIto.class);
   }
 
+  @PostConstruct
+  public void initCache() {
+    // bounded by the number of cached hits, as the size of a result depends on its page size
+    anonymousCache = CacheBuilder.newBuilder().maximumWeight(cacheMaxHits)
+        .weigher((List<Object> key, SearchResult<DatasetVersionIto> result) -> result.getHits().size() + 1)
+        .expireAfterWrite(cacheTtl, TimeUnit.SECONDS).recordStats().build();
+  }
+
+  @Override
+  public SearchResult<DatasetVersionIto> search(SearchQuery sq, boolean mineOnly, R2D2Principal principal)
+      throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    return search(sq, Collections.emptySet(), mineOnly, principal);
+  }
+
+  /**
+   * Results of anonymous searches are cached until the index is written. As writes which don't refresh the index become visible a bit
+   * later, cached results expire after r2d2.search.cache.ttl seconds in any case.
+   */
+  public SearchResult<DatasetVersionIto> search(SearchQuery sq, Collection<DatasetFacet> facets, boolean mineOnly, R2D2Principal principal)
+      throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    // paging with cursor or scroll depends on state in elasticsearch
+    if (!cacheEnabled || principal != null || sq.getCursor() != null || sq.isScroll() || sq.getScrollId() != null) {
+      return searchUncached(sq, facets, mineOnly, principal);
+    }
+
+    long generation = datasetDao.getGeneration();
+    if (generation != cachedGeneration) {
+      cachedGeneration = generation;
+      anonymousCache.invalidateAll();
+    }
+    EnumSet<DatasetFacet> facetSet = EnumSet.noneOf(DatasetFacet.class);
+    facetSet.addAll(facets);
+    List<Object> key = Arrays.asList(generation, normalizeQuery(sq.getQuery()), sq.getSort(), sq.getFrom(), sq.getSize(), facetSet);
+
+    SearchResult<DatasetVersionIto> result = anonymousCache.getIfPresent(key);
+    if (result == null) {
+      result = searchUncached(sq, facetSet, mineOnly, principal);
+      anonymousCache.put(key, result);
+    }
+    return result;
+  }
+
+  public Map<String, Object> getCacheStatistics() {
+    CacheStats stats = anonymousCache.stats();
+    Map<String, Object> statistics = new LinkedHashMap<>();
+    statistics.put("enabled", cacheEnabled);
+    statistics.put("entries", anonymousCache.size());
+    statistics.put("hits", stats.hitCount());
+    statistics.put("misses", stats.missCount());
+    statistics.put("hitRate", stats.hitRate());
+    statistics.put("evictions", stats.evictionCount());
+    statistics.put("indexGeneration", cachedGeneration);
+    return statistics;
+  }
+
+  private static String normalizeQuery(String query) {
+    return query == null || query.trim().isEmpty() ? "*" : query.trim().replaceAll("\\s+", " ");
+  }
+
+  private SearchResult<DatasetVersionIto> searchUncached(SearchQuery sq, Collection<DatasetFacet> facets, boolean mineOnly,
+      R2D2Principal principal) throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    SearchSourceBuilder ssb = buildSearchSourceBuilderFromSearchQuery(sq);
+    for (DatasetFacet facet : facets) {
+      ssb.aggregation(facet.toAggregation(facetSize));
+    }
+    return search(ssb, sq, mineOnly, principal);
+  }
+
   @Override
   protected GenericDaoEs<DatasetVersionIto> getIndexDao() {
     return datasetDao;
@@ -52,6 +157,12 @@ public class DatasetSearchServiceImpl extends GenericSearchServiceImpl<DatasetVe
   }
 
 
+  @Override
+  protected String[] getCursorSortFields() {
+    // the index contains the latest and the latest public version of a dataset
+    return new String[] {DatasetVersionDaoImpl.INDEX_DATASET_ID, DatasetVersionDaoImpl.INDEX_VERSION_NUMBER};
+  }
+
   public QueryBuilder getAdditionalFilterQuery(QueryBuilder qb, boolean mineOnly, R2D2Principal principal) {
     //Only return "my datasets" when logged in
 
@@ -7,23 +7,37 @@ import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.introspect.TypeResolutionContext.Basic;
 
 import de.mpg.mpdl.r2d2.aa.AuthorizationService;
@@ -31,6 +45,7 @@ import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.OptimisticLockingException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2ApplicationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
 import de.mpg.mpdl.r2d2.model.BaseDateDb;
 import de.mpg.mpdl.r2d2.model.BaseDb;
 import de.mpg.mpdl.r2d2.model.aa.Grant;
@@ -40,6 +55,8 @@ import de.mpg.mpdl.r2d2.model.aa.UserAccountRO;
 import de.mpg.mpdl.r2d2.model.aa.UserAccount.Role;
 import de.mpg.mpdl.r2d2.search.dao.GenericDaoEs;
 import de.mpg.mpdl.r2d2.search.es.daoimpl.DatasetVersionDaoImpl;
+import de.mpg.mpdl.r2d2.search.es.daoimpl.ElasticSearchGenericDAOImpl;
+import de.mpg.mpdl.r2d2.search.model.FacetBucket;
 import de.mpg.mpdl.r2d2.search.model.SearchQuery;
 import de.mpg.mpdl.r2d2.search.model.SearchRecord;
 import de.mpg.mpdl.r2d2.search.model.SearchResult;
@@ -57,8 +74,13 @@ public abstract class GenericSearchServiceImpl<E> implements GenericSearchServic
   @Autowired
   private ObjectMapper jsonObjectMapper;
 
+  @Value("${r2d2.search.cursorKeepAlive:60000}")
+  private long cursorKeepAlive;
+
   private Class<E> modelClazz;
 
+  private ObjectReader reader;
+
   public GenericSearchServiceImpl(Class<E> modelClazz) {
     this.modelClazz = modelClazz;
   }
@@ -104,11 +126,110 @@ public abstract class GenericSearchServiceImpl<E> implements GenericSearchServic
   protected abstract QueryBuilder getAdditionalFilterQuery(QueryBuilder qb, boolean mineOnly, R2D2Principal p);
 
   public SearchResult<E> search(SearchQuery sq, boolean mineOnly, R2D2Principal principal)
-      throws R2d2TechnicalException, AuthorizationException {
-    SearchResponse resp = searchDetailed(buildSearchSourceBuilderFromSearchQuery(sq), mineOnly, principal);
+      throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    return search(buildSearchSourceBuilderFromSearchQuery(sq), sq, mineOnly, principal);
+  }
+
+  /**
+   * @param ssb built from sq, possibly extended e.g. with aggregations
+   */
+  protected SearchResult<E> search(SearchSourceBuilder ssb, SearchQuery sq, boolean mineOnly, R2D2Principal principal)
+      throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    if (sq.getCursor() != null) {
+      return searchWithCursor(ssb, sq, mineOnly, principal);
+    }
+    SearchResponse resp = searchDetailed(ssb, mineOnly, principal);
     return buildSearchRetrieveResponseFromElasticSearchResponse(resp);
   }
 
+  /**
+   * Deep paging with search_after on a point in time, sorted by {@link #getCursorSortFields()}. The returned cursor contains the point
+   * in time and the sort values of the last hit, so no paging state is kept in the application. If the point in time expired, paging
+   * continues on a new one from the same position.
+   */
+  protected SearchResult<E> searchWithCursor(SearchSourceBuilder ssb, SearchQuery sq, boolean mineOnly, R2D2Principal principal)
+      throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    Map<String, Object> cursor = decodeCursor(sq.getCursor());
+    String pit = (String) cursor.get("pit");
+    Object[] after = cursor.containsKey("after") ? ((List<?>) cursor.get("after")).toArray() : null;
+
+    ssb.from(0);
+    ssb.size(Math.min(sq.getSize(), ElasticSearchGenericDAOImpl.MAX_SEARCH_SIZE));
+    for (String field : getCursorSortFields()) {
+      ssb.sort(field, SortOrder.ASC);
+    }
+    if (after != null) {
+      ssb.searchAfter(after);
+    }
+
+    SearchResponse resp;
+    if (pit == null) {
+      pit = getIndexDao().openPointInTime(cursorKeepAlive);
+      ssb.pointInTimeBuilder(new PointInTimeBuilder(pit).setKeepAlive(TimeValue.timeValueMillis(cursorKeepAlive)));
+      resp = searchDetailed(ssb, mineOnly, principal);
+    } else {
+      ssb.pointInTimeBuilder(new PointInTimeBuilder(pit).setKeepAlive(TimeValue.timeValueMillis(cursorKeepAlive)));
+      try {
+        resp = searchDetailed(ssb, mineOnly, principal);
+      } catch (R2d2TechnicalException e) {
+        if (!(e.getCause() instanceof ElasticsearchException)
+            || !RestStatus.NOT_FOUND.equals(((ElasticsearchException) e.getCause()).status())) {
+          throw e;
+        }
+        LOGGER.debug("Point in time expired, continuing on a new one");
+        pit = getIndexDao().openPointInTime(cursorKeepAlive);
+        ssb.pointInTimeBuilder(new PointInTimeBuilder(pit).setKeepAlive(TimeValue.timeValueMillis(cursorKeepAlive)));
+        if (after != null) {
+          // without the implicit tiebreaker of the expired point in time
+          ssb.searchAfter(Arrays.copyOf(after, Math.min(after.length, getCursorSortFields().length)));
+        }
+        // the query already contains the filters
+        resp = getIndexDao().searchDetailed(ssb);
+      }
+    }
+
+    if (resp.pointInTimeId() != null) {
+      pit = resp.pointInTimeId();
+    }
+    SearchResult<E> result = buildSearchRetrieveResponseFromElasticSearchResponse(resp);
+    SearchHit[] hits = resp.getHits().getHits();
+    if (hits.length > 0 && hits.length == ssb.size()) {
+      result.setCursor(encodeCursor(pit, hits[hits.length - 1].getSortValues()));
+    } else {
+      getIndexDao().closePointInTime(pit);
+    }
+    return result;
+  }
+
+  /**
+   * @return fields which identify a document in the index, used as sort for paging with a cursor
+   */
+  protected String[] getCursorSortFields() {
+    return new String[] {"id"};
+  }
+
+  private String encodeCursor(String pit, Object[] after) throws R2d2TechnicalException {
+    Map<String, Object> cursor = new LinkedHashMap<>();
+    cursor.put("pit", pit);
+    cursor.put("after", after);
+    try {
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(jsonObjectMapper.writeValueAsBytes(cursor));
+    } catch (JsonProcessingException e) {
+      throw new R2d2TechnicalException(e);
+    }
+  }
+
+  private Map<String, Object> decodeCursor(String cursor) throws ValidationException {
+    if (SearchQuery.CURSOR_START.equals(cursor)) {
+      return Collections.emptyMap();
+    }
+    try {
+      return jsonObjectMapper.readValue(Base64.getUrlDecoder().decode(cursor), new TypeReference<Map<String, Object>>() {});
+    } catch (IllegalArgumentException | IOException | ClassCastException e) {
+      throw new ValidationException("Invalid cursor " + cursor, e);
+    }
+  }
+
 
   protected SearchSourceBuilder buildSearchSourceBuilderFromSearchQuery(SearchQuery sq) {
     QueryBuilder qb = QueryBuilders.queryStringQuery(sq.getQuery() != null ? sq.getQuery() : "*");
@@ -134,12 +255,26 @@ public abstract class GenericSearchServiceImpl<E> implements GenericSearchServic
         SearchRecord<E> srr = new SearchRecord<E>();
         hitList.add(srr);
 
-        E source = jsonObjectMapper.readValue(hit.getSourceAsString(), modelClazz);
+        E source = Utils.readSource(getReader(), hit.getSourceRef());
 
         srr.setSource(source);
         srr.setId(hit.getId());
 
       }
+
+      if (sr.getAggregations() != null) {
+        Map<String, List<FacetBucket>> facets = new LinkedHashMap<>();
+        for (Aggregation aggregation : sr.getAggregations()) {
+          if (aggregation instanceof MultiBucketsAggregation) {
+            List<FacetBucket> buckets = new ArrayList<>();
+            for (MultiBucketsAggregation.Bucket bucket : ((MultiBucketsAggregation) aggregation).getBuckets()) {
+              buckets.add(new FacetBucket(bucket.getKeyAsString(), bucket.getDocCount()));
+            }
+            facets.put(aggregation.getName(), buckets);
+          }
+        }
+        srrVO.setFacets(facets);
+      }
     } catch (Exception e) {
       throw new R2d2TechnicalException(e);
     }
@@ -148,6 +283,13 @@ public abstract class GenericSearchServiceImpl<E> implements GenericSearchServic
     return srrVO;
   }
 
+  private ObjectReader getReader() {
+    if (reader == null) {
+      reader = jsonObjectMapper.readerFor(modelClazz);
+    }
+    return reader;
+  }
+
   protected abstract GenericDaoEs<E> getIndexDao();
 
   protected abstract String getAaKey();
@@ -0,0 +1,256 @@
+package de.mpg.mpdl.r2d2.search.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.mpg.mpdl.r2d2.db.DatasetVersionRepository;
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.db.IndexEventRepository;
+import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.model.Dataset;
+import de.mpg.mpdl.r2d2.model.DatasetVersion;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.IndexEvent;
+import de.mpg.mpdl.r2d2.model.IndexEvent.TargetType;
+import de.mpg.mpdl.r2d2.model.VersionId;
+import de.mpg.mpdl.r2d2.search.dao.DatasetVersionDaoEs;
+import de.mpg.mpdl.r2d2.search.dao.FileDaoEs;
+import de.mpg.mpdl.r2d2.search.es.daoimpl.FileDaoImpl;
+import de.mpg.mpdl.r2d2.search.model.DatasetVersionIto;
+import de.mpg.mpdl.r2d2.search.model.FileIto;
+import de.mpg.mpdl.r2d2.util.DtoMapper;
+
+/**
+ * Feeds the index events written by {@link IndexingService} to elasticsearch. Pending events are picked up in batches by a background
+ * job, several events for the same dataset or file are coalesced into one write of its current state. Events of a transaction which
+ * asked for immediate indexing are dispatched right after its commit. An event is only removed after it was written to the index, so
+ * events which failed (or whose node stopped) are retried by the next run. Events of a target are applied in the order they were
+ * written: an event is left for a later run, while an older event of its target is claimed by another dispatcher.
+ */
+@Service
+public class IndexEventDispatcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexEventDispatcher.class);
+
+  @Value("${r2d2.indexing.batchSize:1000}")
+  private int batchSize;
+
+  @Autowired
+  private IndexEventRepository indexEventRepository;
+
+  @Autowired
+  private DatasetVersionRepository datasetVersionRepository;
+
+  @Autowired
+  private FileRepository fileRepository;
+
+  @Autowired
+  @Qualifier("PublicDatasetVersionDaoImpl")
+  private DatasetVersionDaoEs datasetVersionIndexDao;
+
+  @Autowired
+  private FileDaoEs fileIndexDao;
+
+  @Autowired
+  private DtoMapper mapper;
+
+  private TransactionTemplate transactionTemplate;
+
+  @Autowired
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    // always in a transaction of its own, also when called from afterCommit of the writing transaction
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+  }
+
+  @Scheduled(fixedDelayString = "${r2d2.indexing.dispatchInterval:1000}")
+  public void dispatchPending() {
+    try {
+      int dispatched;
+      do {
+        dispatched = transactionTemplate.execute(status -> dispatchBatch());
+      } while (dispatched == batchSize);
+    } catch (Exception e) {
+      LOGGER.error("Dispatching index events failed, retrying with next run", e);
+    }
+  }
+
+  /**
+   * Writes the given, already committed events to the index and makes them visible for search. The events are claimed like a batch of
+   * the background dispatcher, so events which it is applying at the same time (or already applied) are left to it.
+   */
+  public void dispatchNow(List<IndexEvent> events) {
+    try {
+      transactionTemplate.executeWithoutResult(status -> {
+        List<IndexEvent> locked =
+            withoutOvertaking(indexEventRepository.lockByIds(events.stream().map(IndexEvent::getId).collect(Collectors.toList())));
+        if (locked.isEmpty()) {
+          return;
+        }
+        apply(locked, true);
+        indexEventRepository.deleteByIds(locked.stream().map(IndexEvent::getId).collect(Collectors.toList()));
+      });
+    } catch (Exception e) {
+      LOGGER.warn("Immediate indexing failed, leaving " + events.size() + " event(s) to the background dispatcher", e);
+    }
+  }
+
+  /**
+   * @return the number of applied events, less than batchSize if events were left for a later run
+   */
+  private int dispatchBatch() {
+    List<IndexEvent> events = withoutOvertaking(indexEventRepository.lockOldest(batchSize));
+    if (events.isEmpty()) {
+      return 0;
+    }
+    apply(events, false);
+    indexEventRepository.deleteByIds(events.stream().map(IndexEvent::getId).collect(Collectors.toList()));
+    return events.size();
+  }
+
+  /**
+   * Drops the locked events which would overtake an older event of the same target, e.g. withdrawing the files of a dataset before
+   * publishing them. Their locks are released with the transaction, so they are picked up again once the older event is applied.
+   */
+  private List<IndexEvent> withoutOvertaking(List<IndexEvent> locked) {
+    if (locked.isEmpty()) {
+      return locked;
+    }
+    Set<Long> overtaking =
+        new HashSet<>(indexEventRepository.findOvertaking(locked.stream().map(IndexEvent::getId).collect(Collectors.toList())));
+    if (overtaking.isEmpty()) {
+      return locked;
+    }
+    return locked.stream().filter(event -> !overtaking.contains(event.getId())).collect(Collectors.toList());
+  }
+
+  private void apply(Collection<IndexEvent> events, boolean immediate) {
+    Set<UUID> datasetIds = new LinkedHashSet<>();
+    Set<String> deletedVersions = new LinkedHashSet<>();
+    Set<UUID> fileIds = new LinkedHashSet<>();
+    List<IndexEvent> fileUpdates = new ArrayList<>();
+    for (IndexEvent event : events) {
+      switch (event.getTargetType()) {
+        case DATASET:
+          datasetIds.add(event.getTargetId());
+          if (event.getVersionNumber() != null) {
+            deletedVersions.add(new VersionId(event.getTargetId(), event.getVersionNumber()).toString());
+          }
+          break;
+        case FILE:
+          fileIds.add(event.getTargetId());
+          break;
+        case DATASET_FILES:
+        case DATASET_FILES_APPEND:
+          fileUpdates.add(event);
+          break;
+      }
+    }
+    // partial updates in the order they were made, before the files which are rewritten from the database anyway
+    fileUpdates.sort(Comparator.comparing(IndexEvent::getSequenceNumber));
+    try {
+      if (!datasetIds.isEmpty()) {
+        indexDatasets(datasetIds, deletedVersions, immediate);
+      }
+      for (IndexEvent update : fileUpdates) {
+        updateFilesOfDataset(update);
+      }
+      if (!fileIds.isEmpty()) {
+        indexFiles(fileIds);
+      }
+      if (immediate && (!fileIds.isEmpty() || !fileUpdates.isEmpty())) {
+        fileIndexDao.refresh();
+      }
+    } catch (R2d2TechnicalException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Brings the indexed versions of each dataset in line with the database: the latest version and the latest public version have to
+   * exist, the previous version and the given deleted versions are removed. Only documents which differ from the indexed ones are
+   * written, all in one bulk request. Datasets which no longer exist are removed from the index.
+   */
+  private void indexDatasets(Set<UUID> datasetIds, Set<String> deletedVersions, boolean immediate) throws R2d2TechnicalException {
+    Map<String, DatasetVersionIto> itos = new LinkedHashMap<>();
+    List<String> obsoleteVersions = new ArrayList<>(deletedVersions);
+    List<String> deletedDatasets = new ArrayList<>();
+
+    for (UUID datasetId : datasetIds) {
+      DatasetVersion latestVersion = datasetVersionRepository.getLatestVersion(datasetId);
+      if (latestVersion == null) {
+        deletedDatasets.add(datasetId.toString());
+        continue;
+      }
+      Dataset dataset = latestVersion.getDataset();
+      if (latestVersion.getVersionNumber() > 1) {
+        obsoleteVersions.add(new VersionId(dataset.getId(), latestVersion.getVersionNumber() - 1).toString());
+      }
+      itos.put(latestVersion.getVersionId().toString(), mapper.convertToDatasetVersionIto(latestVersion));
+
+      if (dataset.getLatestPublicVersion() != null && dataset.getLatestPublicVersion() != latestVersion.getVersionNumber()) {
+        DatasetVersion latestPublicVersion = datasetVersionRepository.findById(dataset.getLatestPublicVersionId()).get();
+        itos.put(latestPublicVersion.getVersionId().toString(), mapper.convertToDatasetVersionIto(latestPublicVersion));
+      }
+    }
+
+    long changed = datasetVersionIndexDao.synchronize(itos, obsoleteVersions, immediate);
+    LOGGER.debug(changed + " dataset version document(s) changed for " + itos.size() + " indexed version(s)");
+    if (!deletedDatasets.isEmpty()) {
+      datasetVersionIndexDao.deleteByQuery(QueryBuilders.termsQuery("id", deletedDatasets));
+      if (immediate) {
+        datasetVersionIndexDao.refresh();
+      }
+    }
+  }
+
+  /**
+   * Indexes the current state of the files, files which no longer exist are removed from the index.
+   */
+  private void indexFiles(Set<UUID> fileIds) throws R2d2TechnicalException {
+    Map<String, FileIto> itos = new LinkedHashMap<>();
+    for (File file : fileRepository.findAllById(fileIds)) {
+      itos.put(file.getId().toString(), mapper.convertToFileIto(file));
+    }
+    List<String> deletedFiles =
+        fileIds.stream().map(UUID::toString).filter(id -> !itos.containsKey(id)).collect(Collectors.toList());
+
+    fileIndexDao.createAll(itos, false);
+    fileIndexDao.deleteAll(deletedFiles, false);
+  }
+
+  private void updateFilesOfDataset(IndexEvent update) throws R2d2TechnicalException {
+    QueryBuilder query = update.getVersionNumber() != null
+        ? QueryBuilders.termQuery(FileDaoImpl.INDEX_FILE_DATASETS_VERSIONID,
+            new VersionId(update.getTargetId(), update.getVersionNumber()).getVersionId())
+        : QueryBuilders.termQuery(FileDaoImpl.INDEX_FILE_DATASETS_ID, update.getTargetId().toString());
+    if (TargetType.DATASET_FILES_APPEND.equals(update.getTargetType())) {
+      fileIndexDao.appendByQuery(query, update.getFields(), false);
+    } else {
+      fileIndexDao.updateByQuery(query, update.getFields(), false);
+    }
+  }
+
+}
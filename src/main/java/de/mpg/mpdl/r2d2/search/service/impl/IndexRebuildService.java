@@ -0,0 +1,315 @@
+package de.mpg.mpdl.r2d2.search.service.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+
+import de.mpg.mpdl.r2d2.db.DatasetRepository;
+import de.mpg.mpdl.r2d2.db.DatasetVersionRepository;
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.exceptions.InvalidStateException;
+import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.model.DatasetVersion;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.search.dao.DatasetVersionDaoEs;
+import de.mpg.mpdl.r2d2.search.dao.FileDaoEs;
+import de.mpg.mpdl.r2d2.search.dao.GenericDaoEs;
+import de.mpg.mpdl.r2d2.search.es.connector.ElasticSearchAdminController;
+import de.mpg.mpdl.r2d2.search.model.DatasetVersionIto;
+import de.mpg.mpdl.r2d2.search.model.FileIto;
+import de.mpg.mpdl.r2d2.util.DtoMapper;
+
+/**
+ * Rebuilds the dataset and file indices from the database while the old indices keep serving searches. For each alias a new index
+ * alias_timestamp is created and filled from keyset paged batches of rows, which are written by r2d2.reindex.parallelism workers in bulk
+ * requests. Writes of the application are copied to the new index during the rebuild, and the rebuild doesn't overwrite documents
+ * written by them. A row read before such a write may still be written by the rebuild after it, e.g. a file deleted meanwhile, so the
+ * documents changed during the rebuild are read again and written to the new index before and once more after the alias is switched to
+ * it. The switch of the alias removes the old index in the same step. Only the writes of this node are tracked.
+ */
+@Service
+public class IndexRebuildService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(IndexRebuildService.class);
+
+  @Value("${r2d2.reindex.batchSize:500}")
+  private int batchSize;
+
+  @Value("${r2d2.reindex.parallelism:4}")
+  private int parallelism;
+
+  @Autowired
+  private ElasticSearchAdminController esAdminController;
+
+  @Autowired
+  private ResourceLoader resourceLoader;
+
+  @Autowired
+  private DatasetRepository datasetRepository;
+
+  @Autowired
+  private DatasetVersionRepository datasetVersionRepository;
+
+  @Autowired
+  private FileRepository fileRepository;
+
+  @Autowired
+  @Qualifier("PublicDatasetVersionDaoImpl")
+  private DatasetVersionDaoEs datasetVersionIndexDao;
+
+  @Autowired
+  private FileDaoEs fileIndexDao;
+
+  @Autowired
+  private DtoMapper mapper;
+
+  @Autowired
+  private TaskExecutor taskExecutor;
+
+  private TransactionTemplate transactionTemplate;
+
+  private volatile Progress progress;
+
+  @Autowired
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.transactionTemplate.setReadOnly(true);
+  }
+
+  /**
+   * Starts a rebuild of all indices in the background.
+   *
+   * @return the progress of the started rebuild
+   * @throws InvalidStateException if a rebuild is already running
+   */
+  public synchronized Map<String, Object> start() throws InvalidStateException {
+    if (progress != null && progress.finished == null) {
+      throw new InvalidStateException("An index rebuild is already running since " + progress.started);
+    }
+    Progress started = new Progress();
+    progress = started;
+    taskExecutor.execute(() -> run(started));
+    return started.toMap();
+  }
+
+  /**
+   * @return the progress of the running or last rebuild, null if there was none
+   */
+  public Map<String, Object> getProgress() {
+    Progress current = progress;
+    return current != null ? current.toMap() : null;
+  }
+
+  private void run(Progress progress) {
+    ThreadPoolExecutor workers = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(parallelism), new ThreadPoolExecutor.CallerRunsPolicy());
+    try {
+      String settings = readResource("classpath:es/datasets_index_settings.json");
+      rebuild(datasetVersionIndexDao, settings, readResource("classpath:es/datasets_index_mapping.json"), this::loadDatasetVersions,
+          this::reloadDatasetVersions, progress, workers);
+      rebuild(fileIndexDao, settings, readResource("classpath:es/files_index_mapping.json"), this::loadFiles, this::reloadFiles, progress,
+          workers);
+      LOGGER.info("Index rebuild finished: " + progress.toMap());
+    } catch (Exception e) {
+      LOGGER.error("Index rebuild failed", e);
+      progress.error = e.getMessage();
+    } finally {
+      workers.shutdown();
+      progress.finished = OffsetDateTime.now();
+    }
+  }
+
+  private <E> void rebuild(GenericDaoEs<E> dao, String settings, String mapping, Function<UUID, Batch<E>> loader,
+      Function<Set<String>, Map<String, E>> reloader, Progress progress, ThreadPoolExecutor workers) throws Exception {
+    String alias = dao.getIndexName();
+    List<String> oldIndices = esAdminController.getIndicesOfAlias(alias);
+    String newIndex = esAdminController.createIndexVersion(alias, settings, mapping);
+    AtomicLong written = progress.add(newIndex);
+
+    esAdminController.setRefreshInterval(newIndex, "-1");
+    dao.setShadowIndex(newIndex);
+    boolean switched = false;
+    try {
+      List<Future<?>> pending = new ArrayList<>();
+      UUID after = new UUID(0, 0);
+      Batch<E> batch;
+      do {
+        UUID start = after;
+        batch = transactionTemplate.execute(status -> loader.apply(start));
+        Map<String, E> documents = batch.documents;
+        // blocks in the caller when all workers are busy and the queue is full
+        pending.add(workers.submit(() -> {
+          written.addAndGet(dao.createAllIfAbsent(newIndex, documents));
+          return null;
+        }));
+        // a failed batch aborts the rebuild, before the alias is switched to the incomplete index
+        for (Future<?> future : pending) {
+          if (future.isDone()) {
+            join(future);
+          }
+        }
+        pending.removeIf(Future::isDone);
+        after = batch.last;
+      } while (batch.rows == batchSize);
+
+      for (Future<?> future : pending) {
+        join(future);
+      }
+
+      resync(dao, newIndex, reloader);
+      esAdminController.setRefreshInterval(newIndex, null);
+      esAdminController.switchAlias(alias, newIndex, oldIndices);
+      switched = true;
+      // changes made after the last resync and before the switch went to the old index only, if they were updates
+      resync(dao, newIndex, reloader);
+    } catch (Exception e) {
+      dao.setShadowIndex(null);
+      if (switched) {
+        // the old indices are gone, the new one is serving searches and must be kept
+        LOGGER.error("Resynchronization of index " + newIndex + " failed after the alias " + alias + " was switched to it", e);
+        throw e;
+      }
+      try {
+        esAdminController.deleteIndex(newIndex);
+      } catch (Exception cleanup) {
+        e.addSuppressed(cleanup);
+      }
+      throw e;
+    }
+    dao.setShadowIndex(null);
+  }
+
+  private static void join(Future<?> future) throws Exception {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      throw (Exception) e.getCause();
+    }
+  }
+
+  /**
+   * Writes the current state of the documents changed by the application into the index, until no more changes are reported. A change
+   * made while a document is read again is reported again.
+   */
+  private <E> void resync(GenericDaoEs<E> dao, String index, Function<Set<String>, Map<String, E>> reloader)
+      throws R2d2TechnicalException {
+    Set<String> changed;
+    while (!(changed = dao.takeShadowChanges(index)).isEmpty()) {
+      Set<String> ids = changed;
+      Map<String, E> documents = transactionTemplate.execute(status -> reloader.apply(ids));
+      dao.replaceAll(index, documents, ids);
+      LOGGER.info("Resynchronized " + ids.size() + " changed document(s) in index " + index);
+    }
+  }
+
+  private Batch<DatasetVersionIto> loadDatasetVersions(UUID after) {
+    List<UUID> datasetIds = datasetRepository.findIdsAfter(after, PageRequest.of(0, batchSize));
+    Batch<DatasetVersionIto> batch = new Batch<>(datasetIds.size(), datasetIds.isEmpty() ? after : datasetIds.get(datasetIds.size() - 1));
+    if (!datasetIds.isEmpty()) {
+      for (DatasetVersion version : datasetVersionRepository.findIndexedVersions(datasetIds)) {
+        batch.documents.put(version.getVersionId().toString(), mapper.convertToDatasetVersionIto(version));
+      }
+    }
+    return batch;
+  }
+
+  private Batch<FileIto> loadFiles(UUID after) {
+    List<File> files = fileRepository.findAllAfter(after, PageRequest.of(0, batchSize));
+    Batch<FileIto> batch = new Batch<>(files.size(), files.isEmpty() ? after : files.get(files.size() - 1).getId());
+    for (File file : files) {
+      batch.documents.put(file.getId().toString(), mapper.convertToFileIto(file));
+    }
+    return batch;
+  }
+
+  private Map<String, DatasetVersionIto> reloadDatasetVersions(Set<String> versionIds) {
+    // the ids of the documents are dataset id/version number, changes by dataset id only are reported as well
+    Set<UUID> datasetIds = versionIds.stream().map(id -> UUID.fromString(id.contains("/") ? id.substring(0, id.indexOf('/')) : id))
+        .collect(Collectors.toSet());
+    Map<String, DatasetVersionIto> documents = new LinkedHashMap<>();
+    for (DatasetVersion version : datasetVersionRepository.findIndexedVersions(datasetIds)) {
+      documents.put(version.getVersionId().toString(), mapper.convertToDatasetVersionIto(version));
+    }
+    return documents;
+  }
+
+  private Map<String, FileIto> reloadFiles(Set<String> fileIds) {
+    Map<String, FileIto> documents = new LinkedHashMap<>();
+    for (File file : fileRepository.findAllById(fileIds.stream().map(UUID::fromString).collect(Collectors.toList()))) {
+      documents.put(file.getId().toString(), mapper.convertToFileIto(file));
+    }
+    return documents;
+  }
+
+  private String readResource(String location) throws Exception {
+    return StreamUtils.copyToString(resourceLoader.getResource(location).getInputStream(), StandardCharsets.UTF_8);
+  }
+
+  private static class Batch<E> {
+    private final int rows;
+    private final UUID last;
+    private final Map<String, E> documents = new LinkedHashMap<>();
+
+    private Batch(int rows, UUID last) {
+      this.rows = rows;
+      this.last = last;
+    }
+  }
+
+  private static class Progress {
+    private final OffsetDateTime started = OffsetDateTime.now();
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, AtomicLong> written = new LinkedHashMap<>();
+    private volatile OffsetDateTime finished;
+    private volatile String error;
+
+    private synchronized AtomicLong add(String index) {
+      AtomicLong counter = new AtomicLong();
+      written.put(index, counter);
+      return counter;
+    }
+
+    private synchronized Map<String, Object> toMap() {
+      Map<String, Object> result = new LinkedHashMap<>();
+      long total = written.values().stream().mapToLong(AtomicLong::get).sum();
+      long duration = (finished != null ? finished.toInstant().toEpochMilli() : System.currentTimeMillis()) - startMillis;
+      result.put("state", finished == null ? "RUNNING" : error == null ? "FINISHED" : "FAILED");
+      result.put("started", started);
+      result.put("finished", finished);
+      Map<String, Long> indices = new LinkedHashMap<>();
+      written.forEach((index, counter) -> indices.put(index, counter.get()));
+      result.put("documents", indices);
+      result.put("duration", duration);
+      result.put("documentsPerSecond", duration > 0 ? total * 1000 / duration : 0);
+      result.put("error", error);
+      return result;
+    }
+  }
+
+}
@@ -1,103 +1,161 @@
 package de.mpg.mpdl.r2d2.search.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
-import org.elasticsearch.index.query.QueryBuilders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import de.mpg.mpdl.r2d2.db.DatasetVersionRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.mpg.mpdl.r2d2.db.IndexEventRepository;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
 import de.mpg.mpdl.r2d2.model.Dataset;
-import de.mpg.mpdl.r2d2.model.DatasetVersion;
 import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.model.IndexEvent;
+import de.mpg.mpdl.r2d2.model.IndexEvent.TargetType;
 import de.mpg.mpdl.r2d2.model.VersionId;
-import de.mpg.mpdl.r2d2.search.dao.DatasetVersionDaoEs;
-import de.mpg.mpdl.r2d2.search.dao.FileDaoEs;
-import de.mpg.mpdl.r2d2.search.model.DatasetVersionIto;
-import de.mpg.mpdl.r2d2.service.impl.DatasetVersionServiceDbImpl;
-import de.mpg.mpdl.r2d2.util.DtoMapper;
 
+/**
+ * Records changes of datasets and files which have to be reflected in the search index. The changes are written to an outbox table in
+ * the transaction of the caller, so a rollback doesn't leave the index out of sync and the transaction doesn't wait for elasticsearch.
+ * The index is updated by the {@link IndexEventDispatcher}: right after the commit if immediate is requested (and
+ * r2d2.indexing.immediate is enabled), otherwise by its background job.
+ */
 @Service
 public class IndexingService {
   private static Logger LOGGER = LoggerFactory.getLogger(IndexingService.class);
 
-  @Autowired
-  @Qualifier("PublicDatasetVersionDaoImpl")
-  private DatasetVersionDaoEs datasetVersionIndexDao;
+  @Value("${r2d2.indexing.immediate:true}")
+  private boolean immediateEnabled;
 
   @Autowired
-  private DatasetVersionRepository datasetVersionRepository;
+  private IndexEventRepository indexEventRepository;
 
   @Autowired
-  private DtoMapper mapper;
+  private IndexEventDispatcher dispatcher;
 
   @Autowired
-  private FileDaoEs fileIndexDao;
+  private ObjectMapper objectMapper;
 
   public void reindexDataset(UUID datasetId, boolean immediate) throws R2d2TechnicalException {
+    enqueue(TargetType.DATASET, Collections.singletonList(datasetId), immediate);
+  }
 
-    DatasetVersion latestVersion = datasetVersionRepository.findLatestVersion(datasetId);
-    Dataset dataset = latestVersion.getDataset();
-
-    //LOGGER.info("ModDate Version before reindex: " + latestVersion.getModificationDate());
-    //LOGGER.info("ModDate Dataset before reindex: " + latestVersion.getDataset().getModificationDate());
-
-    // Delete old version, if exists
-    VersionId oldVersion = new VersionId(dataset.getId(), dataset.getLatestVersion() - 1);
-    if (oldVersion != null) {
-      datasetVersionIndexDao.deleteImmediatly(oldVersion.toString());
-    }
-
-    // Reindex latest version
-    DatasetVersionIto latestdvIto = mapper.convertToDatasetVersionIto(latestVersion);
-    if (immediate) {
-      datasetVersionIndexDao.createImmediately(latestVersion.getVersionId().toString(), latestdvIto);
-    } else {
-      datasetVersionIndexDao.create(latestVersion.getVersionId().toString(), latestdvIto);
-    }
-
-    //LOGGER.info("ModDate Version after reindex: " + latestdvIto.getModificationDate());
-    //LOGGER.info("ModDate Dataset after reindex: " + latestdvIto.getDataset().getModificationDate());
-
-    // Reindex latest public version if exists and not equal to latest version
-    if (dataset.getLatestPublicVersion() != null && dataset.getLatestPublicVersion() != latestVersion.getVersionNumber()) {
-      DatasetVersion latestPublicVersion = datasetVersionRepository.findById(dataset.getLatestPublicVersionId()).get();
-      DatasetVersionIto latestPublicDvIto = mapper.convertToDatasetVersionIto(latestPublicVersion);
-      if (immediate) {
-        datasetVersionIndexDao.createImmediately(latestPublicVersion.getVersionId().toString(), latestPublicDvIto);
-      } else {
-        datasetVersionIndexDao.create(latestPublicVersion.getVersionId().toString(), latestPublicDvIto);
-      }
-    }
+  public void reindexFile(File f, boolean immediate) throws R2d2TechnicalException {
+    enqueue(TargetType.FILE, Collections.singletonList(f.getId()), immediate);
+  }
 
+  public void reindexFiles(Collection<File> files, boolean immediate) throws R2d2TechnicalException {
+    enqueue(TargetType.FILE, files.stream().map(File::getId).collect(Collectors.toList()), immediate);
   }
 
+  /**
+   * Like {@link #reindexFiles(Collection, boolean)}, for files which may be deleted by the transaction and are removed from the index
+   * then.
+   */
+  public void reindexFilesById(Collection<UUID> fileIds, boolean immediate) throws R2d2TechnicalException {
+    enqueue(TargetType.FILE, fileIds, immediate);
+  }
 
-  public void reindexFile(File f, boolean immediate) throws R2d2TechnicalException {
-    if (immediate) {
-      fileIndexDao.createImmediately(f.getId().toString(), mapper.convertToFileIto(f));
-    } else {
-      fileIndexDao.create(f.getId().toString(), mapper.convertToFileIto(f));
-    }
+  /**
+   * Sets the state of all indexed files of the dataset, or of one of its versions if versionNumber is given, together with the dataset
+   * they refer to. Only these fields are updated, the files are neither loaded nor reindexed.
+   */
+  public void updateFilesOfDataset(Dataset dataset, Integer versionNumber, UploadState state, boolean immediate)
+      throws R2d2TechnicalException {
+    Map<String, Object> fields = new LinkedHashMap<>();
+    fields.put("state", state.name());
+    fields.put("internal", objectMapper.convertValue(dataset, new TypeReference<Map<String, Object>>() {}));
+
+    IndexEvent event = new IndexEvent(TargetType.DATASET_FILES, dataset.getId());
+    event.setVersionNumber(versionNumber);
+    event.setFields(fields);
+    enqueue(Collections.singletonList(event), immediate);
+  }
 
+  /**
+   * Adds a version to the indexed files of another version of the same dataset, after the files were attached to it in the database.
+   * Only the list of versions is updated, the files are neither loaded nor reindexed.
+   */
+  public void addVersionToFilesOfVersion(VersionId fromVersion, VersionId toVersion, boolean immediate) throws R2d2TechnicalException {
+    IndexEvent event = new IndexEvent(TargetType.DATASET_FILES_APPEND, fromVersion.getId());
+    event.setVersionNumber(fromVersion.getVersionNumber());
+    event.setFields(Collections.singletonMap("datasets", objectMapper.convertValue(toVersion, new TypeReference<Map<String, Object>>() {})));
+    enqueue(Collections.singletonList(event), immediate);
   }
 
   public void deleteDataset(UUID datasetId) throws R2d2TechnicalException {
-    datasetVersionIndexDao.deleteByQuery(QueryBuilders.termQuery("id", datasetId.toString()));
+    enqueue(TargetType.DATASET, Collections.singletonList(datasetId), true);
+  }
 
+  /**
+   * Removes a deleted version from the index and reindexes the remaining versions of its dataset.
+   */
+  public void deleteDatasetVersion(VersionId versionId) throws R2d2TechnicalException {
+    IndexEvent event = new IndexEvent(TargetType.DATASET, versionId.getId());
+    event.setVersionNumber(versionId.getVersionNumber());
+    enqueue(Collections.singletonList(event), true);
   }
 
   public void deleteFile(UUID fileId, boolean immediate) throws R2d2TechnicalException {
-    if (immediate) {
-      fileIndexDao.deleteImmediatly(fileId.toString());
-    } else {
-      fileIndexDao.delete(fileId.toString());
+    enqueue(TargetType.FILE, Collections.singletonList(fileId), immediate);
+  }
+
+  private void enqueue(TargetType targetType, Collection<UUID> ids, boolean immediate) {
+    List<IndexEvent> events = new ArrayList<>();
+    for (UUID id : ids) {
+      events.add(new IndexEvent(targetType, id));
     }
+    enqueue(events, immediate);
+  }
+
+  private void enqueue(List<IndexEvent> events, boolean immediate) {
+    if (events.isEmpty()) {
+      return;
+    }
+    indexEventRepository.saveAll(events);
 
+    if (!immediate || !immediateEnabled) {
+      return;
+    }
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      dispatcher.dispatchNow(events);
+      return;
+    }
+    // collect the events of the transaction and dispatch them together after the commit
+    @SuppressWarnings("unchecked")
+    List<IndexEvent> pending = (List<IndexEvent>) TransactionSynchronizationManager.getResource(this);
+    if (pending == null) {
+      List<IndexEvent> transactionEvents = new ArrayList<>();
+      TransactionSynchronizationManager.bindResource(this, transactionEvents);
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          dispatcher.dispatchNow(transactionEvents);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+          TransactionSynchronizationManager.unbindResourceIfPossible(IndexingService.this);
+        }
+      });
+      pending = transactionEvents;
+    }
+    pending.addAll(events);
   }
 
 }
@@ -24,6 +24,7 @@ import de.mpg.mpdl.r2d2.model.ReviewToken;
 import de.mpg.mpdl.r2d2.model.VersionId;
 import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+import de.mpg.mpdl.r2d2.service.util.DatasetArchive;
 import de.mpg.mpdl.r2d2.service.util.FileDownloadWrapper;
 
 public interface DatasetVersionService extends GenericService<DatasetVersion> {
@@ -67,6 +68,9 @@ public interface DatasetVersionService extends GenericService<DatasetVersion> {
   public File getFileForDataset(VersionId datasetId, UUID fileId, R2D2Principal user)
       throws AuthorizationException, R2d2TechnicalException, NotFoundException;
 
+  public DatasetArchive getArchive(VersionId datasetId, R2D2Principal user)
+      throws AuthorizationException, R2d2TechnicalException, NotFoundException;
+
   public File addFile(UUID id, UUID fileId, OffsetDateTime lastModificationDate, R2D2Principal user) throws R2d2TechnicalException,
       OptimisticLockingException, ValidationException, NotFoundException, InvalidStateException, AuthorizationException;
 
@@ -1,49 +1,55 @@
 package de.mpg.mpdl.r2d2.service.impl;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 
-import org.elasticsearch.index.query.QueryBuilders;
-import org.jclouds.openstack.swift.v1.domain.Container;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import de.mpg.mpdl.r2d2.aa.AaCache;
 import de.mpg.mpdl.r2d2.db.DatasetRepository;
 import de.mpg.mpdl.r2d2.db.DatasetVersionRepository;
 import de.mpg.mpdl.r2d2.db.FileRepository;
 import de.mpg.mpdl.r2d2.db.LocalUserAccountRepository;
 import de.mpg.mpdl.r2d2.db.UserAccountRepository;
+import de.mpg.mpdl.r2d2.exceptions.InvalidStateException;
 import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
-import de.mpg.mpdl.r2d2.model.Dataset;
 import de.mpg.mpdl.r2d2.model.DatasetVersion;
 import de.mpg.mpdl.r2d2.model.File;
 import de.mpg.mpdl.r2d2.model.VersionId;
 import de.mpg.mpdl.r2d2.model.aa.UserAccount;
-import de.mpg.mpdl.r2d2.search.dao.DatasetVersionDaoEs;
-import de.mpg.mpdl.r2d2.search.dao.FileDaoEs;
-import de.mpg.mpdl.r2d2.service.storage.SwiftObjectStoreRepository;
+import de.mpg.mpdl.r2d2.search.service.DatasetSearchService;
+import de.mpg.mpdl.r2d2.search.service.impl.IndexRebuildService;
+import de.mpg.mpdl.r2d2.search.service.impl.IndexingService;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+import de.mpg.mpdl.r2d2.util.Utils;
 
 @Service
 @PreAuthorize("hasRole('ROLE_ADMIN')")
@@ -51,6 +57,16 @@ public class AdminService {
 
   private static Logger LOGGER = LoggerFactory.getLogger(AdminService.class);
 
+  private static final int LISTING_PAGE_SIZE = 500;
+
+  private static final UUID MIN_ID = new UUID(0, 0);
+
+  @PersistenceContext
+  private EntityManager em;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
   @Autowired
   UserAccountRepository users;
 
@@ -64,27 +80,39 @@ public class AdminService {
   DatasetVersionRepository versions;
 
   @Autowired
-  @Qualifier("PublicDatasetVersionDaoImpl")
-  DatasetVersionDaoEs datasetVersionDaoEs;
+  IndexingService indexingService;
 
   @Autowired
-  FileDaoEs fileDaoEs;
+  FileRepository files;
 
   @Autowired
-  FileRepository files;
+  ObjectStoreRepository objectStore;
 
   @Autowired
-  SwiftObjectStoreRepository objectStore;
+  StorageGarbageCollector garbageCollector;
+
+  @Autowired
+  ContentBlobService contentBlobService;
+
+  @Autowired
+  IndexRebuildService indexRebuildService;
+
+  @Autowired
+  DatasetSearchService datasetSearchService;
+
+  @Autowired
+  AaCache aaCache;
 
   public String test() {
     Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
     return authentication.getName() + authentication.getAuthorities();
   }
 
-  public List<UserAccount> listAllUsers() {
-    List<UserAccount> userList = new ArrayList<>();
-    users.findAll().iterator().forEachRemaining(userList::add);
-    return userList;
+  /**
+   * Writes all users as JSON lines, see {@link #writeLines(OutputStream, Function)}.
+   */
+  public void writeAllUsers(OutputStream out) throws IOException {
+    writeLines(out, (UserAccount last) -> users.findAllAfter(last != null ? last.getId() : MIN_ID, PageRequest.of(0, LISTING_PAGE_SIZE)));
   }
 
   public UserAccount listUserById(String id) throws NotFoundException {
@@ -92,7 +120,10 @@ public class AdminService {
   }
 
   public UserAccount updateUser(UserAccount user2update) {
-    return users.save(user2update);
+    user2update.setModificationDate(Utils.generateCurrentDateTimeForDatabase());
+    UserAccount updated = users.save(user2update);
+    aaCache.invalidateUserAccount(updated.getId());
+    return updated;
   }
 
   @Transactional
@@ -101,90 +132,162 @@ public class AdminService {
         users.findById(UUID.fromString(id)).orElseThrow(() -> new NotFoundException(String.format("user with id %s NOT found!", id)));
     localUsers.deleteByUser(user);
     users.deleteById(UUID.fromString(id));
+    aaCache.invalidateUserAccount(user.getId());
   }
 
-  public List<DatasetVersion> listAllDatasets() {
-    List<DatasetVersion> datasetList = new ArrayList<>();
-    versions.findAll().iterator().forEachRemaining(datasetList::add);
-    return datasetList;
+  /**
+   * Writes all dataset versions as JSON lines, see {@link #writeLines(OutputStream, Function)}.
+   */
+  public void writeAllDatasets(OutputStream out) throws IOException {
+    writeLines(out, (DatasetVersion last) -> versions.findAllAfter(last != null ? last.getId() : MIN_ID,
+        last != null ? last.getVersionNumber() : 0, PageRequest.of(0, LISTING_PAGE_SIZE)));
   }
 
   public DatasetVersion listDatasetById(VersionId id) throws NotFoundException {
     return versions.findById(id).orElseThrow(() -> new NotFoundException(String.format("Dataset with id %s NOT FOUND", id)));
   }
 
-  // @Transactional(rollbackFor = Throwable.class)
+  /**
+   * Deletes a dataset with all its versions and files. The rows and the references to shared content are removed with one statement per
+   * table. The content is only removed once the deletion is committed, so a rollback leaves nothing half-deleted; if removing it fails,
+   * it is logged and left to the garbage collection. The index documents are removed by index events written with the deletion.
+   *
+   * @return the number of deleted versions
+   */
+  @Transactional(rollbackFor = Throwable.class)
   public long deleteDataset(UUID id) throws NotFoundException, R2d2TechnicalException {
-    Dataset dataset = datasets.findById(id).orElseThrow(() -> new NotFoundException(String.format("Dataset with id %s NOT FOUND", id)));
-
-    List<DatasetVersion> versionList = datasets.listAllVersions(id);
-    Set<File> fileSet = new HashSet<>();
-    Pageable page = PageRequest.of(0, 25);
-    versionList.forEach(v -> {
-      files.findAllForVersion(v.getVersionId(), page).forEach(f -> fileSet.add(f));
-      // versions.deleteById(v.getVersionId());
-    });
-    fileSet.forEach(f -> {
-      files.deleteById(f.getId());
-      try {
-        this.deleteContainer(f.getId().toString());
-        fileDaoEs.deleteByQuery(QueryBuilders.termQuery("id", f.getId().toString()));
-      } catch (NotFoundException e) {
-        LOGGER.warn(String.format("File with id %s for dataset %s NOT FOUND.", f.getId().toString(), id.toString()));
-      } catch (R2d2TechnicalException e) {
-        LOGGER.error(String.format("Error removing file with id %s from index.", f.getId().toString()));
+    Set<File> fileSet = new LinkedHashSet<>(files.findAllForDataset(id));
+    List<String> releasedContainers = contentBlobService.releaseContent(fileSet);
+    files.deleteAllForDataset(id);
+    int deletedVersions = versions.deleteAllForDataset(id);
+    if (datasets.deleteDatasetById(id) == 0) {
+      throw new NotFoundException(String.format("Dataset with id %s NOT FOUND", id));
+    }
+    indexingService.reindexFiles(fileSet, false);
+    indexingService.deleteDataset(id);
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        contentBlobService.deleteReleasedContent(fileSet, releasedContainers);
       }
     });
-    versionList.forEach(v -> {
-      versions.deleteById(v.getVersionId());
-    });
-    datasets.deleteById(id);
-    return datasetVersionDaoEs.deleteByQuery(QueryBuilders.termQuery("id", id.toString()));
-  }
-
-  public String deleteDatasetVersion(VersionId id) throws NotFoundException, R2d2TechnicalException {
-    DatasetVersion version =
-        versions.findById(id).orElseThrow(() -> new NotFoundException(String.format("Dataset with id %s NOT FOUND", id)));
-    Pageable page = PageRequest.of(0, 25);
-    Page<File> fileList = files.findAllForVersion(id, page);
-    fileList.forEach(file -> {
-      try {
-        deleteContainer(file.getId().toString());
-        fileDaoEs.deleteImmediatly(file.getId().toString());
-      } catch (NotFoundException e) {
-        LOGGER.warn(String.format("File with id %s for dataset %s NOT FOUND.", file.getId().toString(), id));
-      } catch (R2d2TechnicalException e) {
-        LOGGER.error(String.format("Error removing file with id %s from index.", file.getId().toString()));
+    return deletedVersions;
+  }
+
+  /**
+   * Deletes a dataset version. Its files are detached from it, only files which are attached to no other version are deleted together
+   * with their content. The content is removed once the deletion is committed.
+   */
+  @Transactional(rollbackFor = Throwable.class)
+  public void deleteDatasetVersion(VersionId id) throws NotFoundException, R2d2TechnicalException {
+    if (!versions.existsById(id)) {
+      throw new NotFoundException(String.format("Dataset with id %s NOT FOUND", id));
+    }
+    List<UUID> versionFileIds = files.findAllIdsForVersion(id);
+    List<File> orphanedFiles = files.findAllOnlyInVersion(id);
+    List<String> releasedContainers = contentBlobService.releaseContent(orphanedFiles);
+    files.detachAllFromVersion(id.getId(), id.getVersionNumber());
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        contentBlobService.deleteReleasedContent(orphanedFiles, releasedContainers);
       }
     });
     versions.deleteById(id);
-    return datasetVersionDaoEs.deleteImmediatly(id.toString());
+    // the dataset may point to the deleted version
+    datasets.updateLatestVersions(Collections.singleton(id.getId()));
+    // the deleted files are removed from the index, the remaining ones no longer refer to the version
+    indexingService.reindexFilesById(versionFileIds, false);
+    indexingService.deleteDatasetVersion(id);
+  }
+
+  /**
+   * Writes the ids of all files as JSON lines, see {@link #writeLines(OutputStream, Function)}.
+   */
+  public void writeAllFileIds(OutputStream out) throws IOException {
+    writeLines(out, (UUID last) -> files.findIdsAfter(last != null ? last : MIN_ID, PageRequest.of(0, LISTING_PAGE_SIZE)));
+  }
+
+  /**
+   * Writes the name and size of all containers of the object store as JSON lines, see {@link #writeLines(OutputStream, Function)}.
+   */
+  public void writeAllContainers(OutputStream out) throws IOException {
+    writeLines(out, (Map<String, Object> last) -> objectStore
+        .listContainers(last != null ? (String) last.get("name") : null, LISTING_PAGE_SIZE).entrySet().stream().map(container -> {
+          Map<String, Object> row = new LinkedHashMap<>();
+          row.put("name", container.getKey());
+          row.put("bytes", container.getValue());
+          return row;
+        }).collect(Collectors.toList()));
+  }
+
+  /**
+   * Writes rows as JSON lines, one page after the other. Each page is requested after the last row of the previous page (null for the
+   * first page) and detached once written, so memory doesn't grow with the number of rows.
+   */
+  private <T> void writeLines(OutputStream out, Function<T, List<T>> nextPage) throws IOException {
+    ObjectWriter writer = objectMapper.writer();
+    T last = null;
+    List<T> page;
+    do {
+      page = nextPage.apply(last);
+      for (T row : page) {
+        out.write(writer.writeValueAsBytes(row));
+        out.write('\n');
+        last = row;
+      }
+      out.flush();
+      em.clear();
+    } while (page.size() == LISTING_PAGE_SIZE);
+  }
+
+  /**
+   * Removes stale upload sessions and orphaned containers, see {@link StorageGarbageCollector}.
+   */
+  public Map<String, Object> clearObjectStore(boolean dryRun) {
+    return garbageCollector.collect(dryRun);
+  }
+
+  /**
+   * Starts rebuilding the search indices from the database, see {@link IndexRebuildService}.
+   */
+  public Map<String, Object> rebuildIndex() throws InvalidStateException {
+    return indexRebuildService.start();
+  }
+
+  public Map<String, Object> getIndexRebuildProgress() throws NotFoundException {
+    Map<String, Object> progress = indexRebuildService.getProgress();
+    if (progress == null) {
+      throw new NotFoundException("No index rebuild was started");
+    }
+    return progress;
   }
 
-  public List<String> listAllFiles() {
-    List<String> fileIds = new ArrayList<>();
-    files.findAll().iterator().forEachRemaining(file -> fileIds.add(file.getId().toString()));
-    return fileIds;
+  /**
+   * Finds datasets whose latest version numbers disagree with their versions, which are used to look up the latest versions.
+   *
+   * @param repair set the latest version numbers of these datasets from their versions
+   * @return the ids of the inconsistent datasets and whether they were repaired
+   */
+  public Map<String, Object> checkLatestVersions(boolean repair) {
+    List<UUID> inconsistent = datasets.findIdsWithInconsistentLatestVersion();
+    if (repair && !inconsistent.isEmpty()) {
+      LOGGER.warn("Repairing latest version numbers of datasets " + inconsistent);
+      datasets.updateLatestVersions(inconsistent);
+    }
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("inconsistent", inconsistent);
+    result.put("repaired", repair && !inconsistent.isEmpty());
+    return result;
   }
 
-  public List<Container> listAllContainers() {
-    return objectStore.listAllContainers();
+  public Map<String, Object> getSearchCacheStatistics() {
+    return datasetSearchService.getCacheStatistics();
   }
 
-  public Map<String, Object> clearObjectStore() {
-    Map<String, Object> response = new LinkedHashMap<>();
-    List<Container> containers = listAllContainers();
-    response.put("containers", containers.size());
-    List<String> files = listAllFiles();
-    response.put("files", files.size());
-    containers.removeAll(files);
-    response.put("2 be cleared", containers.size());
-    /*
-     * containers.forEach(id -> { try { deleteContainer(id); } catch
-     * (NotFoundException e) {
-     * LOGGER.warn(String.format("Container with id %s NOT FOUND.", id)); } });
-     */
-    return response;
+  public Map<String, Object> getAaCacheStatistics() {
+    return aaCache.getStatistics();
   }
 
   public List<Object> listContainerContent(String id) throws NotFoundException {
@@ -0,0 +1,182 @@
+package de.mpg.mpdl.r2d2.service.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.mpg.mpdl.r2d2.db.ContentBlobRepository;
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.model.ContentBlob;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+
+/**
+ * Content addressed deduplication of uploaded files. Files with the same SHA-256 share one container in the object store, which is
+ * reference counted in the content_blob table and deleted together with the last file referencing it.
+ */
+@Service
+public class ContentBlobService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ContentBlobService.class);
+
+  @Value("${r2d2.deduplication:false}")
+  private boolean enabled;
+
+  @Autowired
+  private ContentBlobRepository contentBlobRepository;
+
+  @Autowired
+  private FileRepository fileRepository;
+
+  @Autowired
+  private ObjectStoreRepository objectStoreRepository;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Looks up already stored content for an upload which announced its SHA-256. Only content the user can read anyway (public or own
+   * files) is offered, otherwise knowing a hash would be enough to obtain a copy of someone else's file.
+   */
+  public Optional<ContentBlob> findReusable(String sha256, UserAccount user) {
+    if (!enabled || sha256 == null) {
+      return Optional.empty();
+    }
+    return contentBlobRepository.findById(sha256)
+        .filter(blob -> fileRepository.existsReadableInContainer(blob.getContainer(), UploadState.PUBLIC, user.getId()));
+  }
+
+  /**
+   * Lets the file share the content of the given blob instead of uploading it again.
+   *
+   * @return false, if the blob was deleted in the meantime and the content has to be uploaded
+   */
+  @Transactional(rollbackFor = Throwable.class)
+  public boolean reuse(File file, ContentBlob blob) {
+    if (contentBlobRepository.addExistingReference(blob.getId()) == 0) {
+      return false;
+    }
+    file.setContainer(blob.getContainer());
+    file.setChecksum(blob.getChecksum());
+    file.setSha256(blob.getId());
+    file.setSize(blob.getSize());
+    return true;
+  }
+
+  /**
+   * Registers the uploaded content of the file. If the same content is already stored, the file is pointed to the existing container
+   * and the freshly uploaded one is removed once the transaction is committed.
+   */
+  @Transactional(rollbackFor = Throwable.class)
+  public void register(File file) {
+    if (!enabled || file.getSha256() == null) {
+      return;
+    }
+    String ownContainer = file.getId().toString();
+    String container = contentBlobRepository.addReference(file.getSha256(), ownContainer, file.getChecksum(), file.getSize());
+    file.setContainer(container);
+    if (!ownContainer.equals(container)) {
+      LOGGER.info("Content of file " + file.getId() + " is already stored in container " + container);
+      if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+        deleteUnusedContainer(ownContainer);
+        return;
+      }
+      // the upload is still needed if the transaction is rolled back, e.g. to retry the finalization
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+        @Override
+        public void afterCommit() {
+          deleteUnusedContainer(ownContainer);
+        }
+      });
+    }
+  }
+
+  private void deleteUnusedContainer(String container) {
+    try {
+      objectStoreRepository.deleteContainer(container);
+    } catch (NotFoundException e) {
+      // nothing to clean up
+    }
+  }
+
+  /**
+   * Removes the content of a deleted file from the object store, unless it is still shared with other files.
+   */
+  @Transactional(rollbackFor = Throwable.class)
+  public void deleteContent(File file) throws NotFoundException {
+    if (deleteOwnContent(file)) {
+      return;
+    }
+    contentBlobRepository.removeReference(file.getSha256());
+    if (contentBlobRepository.deleteIfUnreferenced(file.getSha256()) > 0) {
+      objectStoreRepository.deleteContainer(file.getContainer());
+    }
+  }
+
+  /**
+   * Removes the references of files which are being deleted, in the transaction deleting the files and before they are deleted.
+   *
+   * @return the containers which are no longer referenced, to be passed to {@link #deleteReleasedContent(Collection, Collection)}
+   */
+  @Transactional(rollbackFor = Throwable.class)
+  public List<String> releaseContent(Collection<File> files) {
+    if (files.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return contentBlobRepository.removeReferencesOfFiles(files.stream().map(File::getId).collect(Collectors.toList()));
+  }
+
+  /**
+   * Removes the content of deleted files from the object store, once their deletion is committed: the content registered for the files
+   * themselves and the released containers. Content which is not found is skipped.
+   */
+  public void deleteReleasedContent(Collection<File> files, Collection<String> releasedContainers) {
+    for (File file : files) {
+      try {
+        deleteOwnContent(file);
+      } catch (NotFoundException e) {
+        LOGGER.warn("Content of deleted file " + file.getId() + " NOT FOUND");
+      }
+    }
+    for (String container : releasedContainers) {
+      try {
+        objectStoreRepository.deleteContainer(container);
+      } catch (NotFoundException e) {
+        LOGGER.warn("Released container " + container + " NOT FOUND");
+      }
+    }
+  }
+
+  /**
+   * Aborts an unfinished upload of the file and deletes its content, if it isn't registered as shared content.
+   *
+   * @return false, if the content is registered and released by its reference count
+   */
+  private boolean deleteOwnContent(File file) throws NotFoundException {
+    if (StorageGarbageCollector.UPLOAD_STATES.contains(file.getState()) && file.getStateInfo() != null
+        && file.getStateInfo().getUploadId() != null) {
+      objectStoreRepository.abortUpload(file);
+    }
+    if (file.getContainer() == null || file.getSha256() == null) {
+      objectStoreRepository.deleteContainer(file.getId().toString());
+      return true;
+    }
+    return false;
+  }
+
+}
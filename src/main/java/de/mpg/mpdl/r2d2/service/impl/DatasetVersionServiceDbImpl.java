@@ -20,8 +20,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -45,7 +45,8 @@ import de.mpg.mpdl.r2d2.model.validation.PublishConstraintGroup;
 import de.mpg.mpdl.r2d2.model.validation.SaveConstraintGroup;
 import de.mpg.mpdl.r2d2.search.service.impl.IndexingService;
 import de.mpg.mpdl.r2d2.service.DatasetVersionService;
-import de.mpg.mpdl.r2d2.service.storage.SwiftObjectStoreRepository;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+import de.mpg.mpdl.r2d2.service.util.DatasetArchive;
 import de.mpg.mpdl.r2d2.util.Utils;
 
 @Service
@@ -69,7 +70,7 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
   private ReviewTokenRepository reviewTokenRepository;
 
   @Autowired
-  private SwiftObjectStoreRepository objectStoreRepository;
+  private ObjectStoreRepository objectStoreRepository;
 
   @PersistenceContext
   private EntityManager em;
@@ -83,6 +84,9 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
   @Autowired
   private Validator beanValidator;
 
+  @Autowired
+  private TaskExecutor taskExecutor;
+
   //TODO: Use DataciteDoiRepositoryImpl in prod (instead of DummyDoiRepositoryImpl)
   @Autowired
   @Qualifier("DummyDoiRepositoryImpl")
@@ -138,7 +142,7 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
   public DatasetVersion update(UUID id, DatasetVersion datasetVersion, R2D2Principal user) throws R2d2TechnicalException,
       OptimisticLockingException, ValidationException, NotFoundException, InvalidStateException, AuthorizationException {
 
-    DatasetVersion latestVersion = datasetVersionRepository.findLatestVersion(id);
+    DatasetVersion latestVersion = datasetVersionRepository.getLatestVersion(id);
     DatasetVersion datasetVersionToBeUpdated;
 
     checkAa("update", user, latestVersion);
@@ -206,21 +210,21 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
       throws R2d2TechnicalException, NotFoundException, AuthorizationException {
 
     DatasetVersion requestedVersion = null;
-    DatasetVersion latestVersion = datasetVersionRepository.findLatestVersion(id);
+    DatasetVersion latestVersion = datasetVersionRepository.getLatestVersion(id);
 
     if (latestVersion == null) {
       throw new NotFoundException("Dataset with id " + id + " not found");
     }
 
     if (principal == null || !principal.hasAuthentication()) {
-      requestedVersion = datasetVersionRepository.findLatestPublicVersion(id);
+      requestedVersion = datasetVersionRepository.findLatestPublicVersionByPointer(id);
     } else {
 
       try {
         checkAa("get", principal, latestVersion);
         requestedVersion = latestVersion;
       } catch (AuthorizationException e) {
-        requestedVersion = datasetVersionRepository.findLatestPublicVersion(id);
+        requestedVersion = datasetVersionRepository.findLatestPublicVersionByPointer(id);
       }
     }
 
@@ -260,7 +264,7 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
       OptimisticLockingException, ValidationException, NotFoundException, InvalidStateException, AuthorizationException {
 
     // DatasetVersion datasetVersionToBeUpdated = get(id, user);
-    DatasetVersion latestVersion = datasetVersionRepository.findLatestVersion(id);
+    DatasetVersion latestVersion = datasetVersionRepository.getLatestVersion(id);
 
     checkAa("publish", user, latestVersion);
     checkEqualModificationDate(lastModificationDate, latestVersion.getModificationDate());
@@ -281,15 +285,8 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
     generateFindableDoi(latestVersion);
 
     //set all files to Public
-    List<File> filesOfDatasetVersion = fileRepository.findAllForVersion(latestVersion.getVersionId());
-    for (File f : filesOfDatasetVersion) {
-      if (!UploadState.PUBLIC.equals(f.getState())) {
-        f.setState(UploadState.PUBLIC);
-        indexingService.reindexFile(f, true);
-
-      }
-
-    }
+    fileRepository.updateStateForVersion(latestVersion.getVersionId(), UploadState.PUBLIC);
+    indexingService.updateFilesOfDataset(latestVersion.getDataset(), latestVersion.getVersionNumber(), UploadState.PUBLIC, true);
 
     try {
       latestVersion = datasetVersionRepository.saveAndFlush(latestVersion);
@@ -310,7 +307,7 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
       AuthorizationException {
 
 
-    DatasetVersion latestVersion = datasetVersionRepository.findLatestVersion(id);
+    DatasetVersion latestVersion = datasetVersionRepository.getLatestVersion(id);
 
     checkAa("withdraw", user, latestVersion);
     checkEqualModificationDate(lastModificationDate, latestVersion.getModificationDate());
@@ -324,17 +321,13 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
 
     setBasicModificationProperties(latestVersion, user.getUserAccount());
 
-    for (DatasetVersion dv : datasetVersionRepository.findAllByDatasetId(latestVersion.getId())) {
-      dv.setState(State.WITHDRAWN);
-    }
+    latestVersion.setState(State.WITHDRAWN);
+    datasetVersionRepository.updateStateForDataset(latestVersion.getId(), State.WITHDRAWN);
 
     //set all files to Attached 
     //TODO use ATTACHED here or another state for withdrawn or delete files?
-    List<File> filesOfDataset = fileRepository.findAllForDataset(latestVersion.getId());
-    for (File f : filesOfDataset) {
-      f.setState(UploadState.ATTACHED);
-      indexingService.reindexFile(f, true);
-    }
+    fileRepository.updateStateForDataset(latestVersion.getId(), UploadState.ATTACHED);
+    indexingService.updateFilesOfDataset(latestVersion.getDataset(), null, UploadState.ATTACHED, true);
 
     try {
       latestVersion = datasetVersionRepository.saveAndFlush(latestVersion);
@@ -375,6 +368,13 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
   }
 
 
+  public DatasetArchive getArchive(VersionId datasetId, R2D2Principal user)
+      throws AuthorizationException, R2d2TechnicalException, NotFoundException {
+    //AA via get
+    DatasetVersion dv = get(datasetId, user);
+    return new DatasetArchive(dv, fileRepository, objectStoreRepository, taskExecutor);
+  }
+
   /*
   public FileDownloadWrapper getFileContent(VersionId versionId, UUID fileId, R2D2Principal user) throws R2d2TechnicalException,
       OptimisticLockingException, ValidationException, NotFoundException, InvalidStateException, AuthorizationException {
@@ -390,21 +390,15 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
   */
 
 
-  private void attachFiles(DatasetVersion nextVersion, DatasetVersion currentVersion) {
-
-    Page<File> existingFiles = fileRepository.findAllForVersion(currentVersion.getVersionId(), PageRequest.of(0, 25));
-    if (!existingFiles.isEmpty()) {
-      existingFiles.forEach(file -> {
-        try {
-          file.getDatasets().add(nextVersion);
-          fileRepository.saveAndFlush(file);
-          indexingService.reindexFile(file, true);
-        } catch (Exception e) {
-          throw new RuntimeException(e);
-        }
-      });
+  /**
+   * Carries the files of the current version over to the next version, which has to be flushed already, in one statement.
+   */
+  private void attachFiles(DatasetVersion nextVersion, DatasetVersion currentVersion) throws R2d2TechnicalException {
+    int attached =
+        fileRepository.attachAllToVersion(currentVersion.getId(), currentVersion.getVersionNumber(), nextVersion.getVersionNumber());
+    if (attached > 0) {
+      indexingService.addVersionToFilesOfVersion(currentVersion.getVersionId(), nextVersion.getVersionId(), true);
     }
-
   }
 
   /*
@@ -545,7 +539,7 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
   public List<File> updateFiles(UUID id, List<UUID> fileIds, OffsetDateTime lastModificationDate, R2D2Principal user)
       throws R2d2TechnicalException, OptimisticLockingException, ValidationException, NotFoundException, InvalidStateException,
       AuthorizationException {
-    DatasetVersion latestVersion = datasetVersionRepository.findLatestVersion(id);
+    DatasetVersion latestVersion = datasetVersionRepository.getLatestVersion(id);
 
     em.detach(latestVersion);
 
@@ -607,18 +601,19 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
 
   //TODO: Refactor/Merge this method with the create() and buildDatasetVersionToCreate() methods to avoid duplicate code!?
   //Refactor/Remove the else case which does NOT create a new DatasetVersion.
-  private DatasetVersion createNewVersion(DatasetVersion latestVersion, R2D2Principal user) throws ValidationException {
+  private DatasetVersion createNewVersion(DatasetVersion latestVersion, R2D2Principal user)
+      throws ValidationException, R2d2TechnicalException {
 
     // create new version
     if (State.PUBLIC.equals(latestVersion.getState())) {
       LOGGER.info("Creating new version of dataset " + latestVersion.getVersionId());
       DatasetVersion resultedDataset = buildDatasetVersionToCreate(latestVersion, user.getUserAccount(),
           latestVersion.getVersionNumber() + 1, latestVersion.getDataset());
-      attachFiles(resultedDataset, latestVersion);
       resultedDataset.getDataset().setLatestVersion(resultedDataset.getVersionNumber());
       // setBasicCreationProperties(result, user.getUserAccount());
       setBasicCreationProperties(resultedDataset, user.getUserAccount());
-      resultedDataset = datasetVersionRepository.save(resultedDataset);
+      resultedDataset = datasetVersionRepository.saveAndFlush(resultedDataset);
+      attachFiles(resultedDataset, latestVersion);
       auditRepository.save(new Audit(Action.CREATE, resultedDataset.getVersionId(), user.getUserAccount()));
       return resultedDataset;
 
@@ -633,7 +628,7 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
       R2D2Principal user) throws R2d2TechnicalException, OptimisticLockingException, ValidationException, NotFoundException,
       InvalidStateException, AuthorizationException {
 
-    DatasetVersion latestVersion = datasetVersionRepository.findLatestVersion(id);
+    DatasetVersion latestVersion = datasetVersionRepository.getLatestVersion(id);
 
     DatasetVersion resultedDataset = null;
 
@@ -651,6 +646,11 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
 
     List<File> processedFiles = new ArrayList<File>();
 
+    // load all files with one query, the lookups below are then answered by the persistence context
+    List<UUID> fileIds = new ArrayList<UUID>(fileIdsToAdd);
+    fileIds.addAll(fileIdsToRemove);
+    fileRepository.findAllById(fileIds);
+
     for (UUID fileIdToAdd : fileIdsToAdd) {
       LOGGER.info("Trying to add file with id " + fileIdToAdd + " to dataset version " + resultedDataset.getVersionId());
       File file = fileUploadService.get(fileIdToAdd, user);
@@ -662,12 +662,10 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
           case COMPLETE: {
             file.setState(UploadState.ATTACHED);
             file.getDatasets().add(resultedDataset);
-            indexingService.reindexFile(file, true);
             break;
           }
           case PUBLIC: {
             file.getDatasets().add(resultedDataset);
-            indexingService.reindexFile(file, true);
             break;
           }
           default: {
@@ -690,7 +688,6 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
           case ATTACHED: {
             file.setState(UploadState.COMPLETE);
             file.getDatasets().remove(resultedDataset);
-            indexingService.reindexFile(file, true);
             break;
           }
           case PUBLIC: {
@@ -698,7 +695,6 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
             if (file.getDatasets().isEmpty()) {
               file.setState(UploadState.COMPLETE);
             }
-            indexingService.reindexFile(file, true);
             break;
           }
           default: {
@@ -717,6 +713,7 @@ public class DatasetVersionServiceDbImpl extends GenericServiceDbImpl<DatasetVer
       throw new R2d2TechnicalException(e);
     }
 
+    indexingService.reindexFiles(processedFiles, true);
     indexingService.reindexDataset(resultedDataset.getId(), true);
 
     return processedFiles;
@@ -24,8 +24,8 @@ public class DoiServiceImpl implements DoiService {
       throws R2d2TechnicalException, NotFoundException, AuthorizationException {
     //TODO: checkAA
 
-    //TODO: Use findLatestVersion() OR findLatestPublicVersion() ?
-    DatasetVersion latestDatasetVersion = datasetVersionRepository.findLatestVersion(datasetId);
+    //TODO: Use getLatestVersion() OR findLatestPublicVersionByPointer() ?
+    DatasetVersion latestDatasetVersion = datasetVersionRepository.getLatestVersion(datasetId);
 
     //TODO: Create DOI-Metadata XML
 
@@ -4,9 +4,15 @@ import java.io.InputStream;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IntSummaryStatistics;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.Page;
@@ -15,8 +21,16 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.security.access.prepost.PostAuthorize;
 import org.springframework.security.access.prepost.PostFilter;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import de.mpg.mpdl.r2d2.db.DatasetVersionRepository;
 import de.mpg.mpdl.r2d2.db.FileRepository;
@@ -26,6 +40,7 @@ import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
 import de.mpg.mpdl.r2d2.exceptions.OptimisticLockingException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
 import de.mpg.mpdl.r2d2.exceptions.ValidationException;
+import de.mpg.mpdl.r2d2.model.ContentBlob;
 import de.mpg.mpdl.r2d2.model.FileChunk;
 import de.mpg.mpdl.r2d2.model.FileChunk.Progress;
 import de.mpg.mpdl.r2d2.model.VersionId;
@@ -39,11 +54,14 @@ import de.mpg.mpdl.r2d2.search.service.impl.IndexingService;
 import de.mpg.mpdl.r2d2.service.FileService;
 import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
 import de.mpg.mpdl.r2d2.service.storage.SwiftObjectStoreRepository;
+import de.mpg.mpdl.r2d2.service.util.DigestingInputStream;
 import de.mpg.mpdl.r2d2.service.util.FileDownloadWrapper;
 
 @Service
 public class FileUploadService extends GenericServiceDbImpl<File> implements FileService {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(FileUploadService.class);
+
   public FileUploadService() {
     super(File.class);
   }
@@ -60,6 +78,22 @@ public class FileUploadService extends GenericServiceDbImpl<File> implements Fil
   @Autowired
   private IndexingService indexingService;
 
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private ContentBlobService contentBlobService;
+
+  @Autowired
+  private TaskExecutor taskExecutor;
+
+  private TransactionTemplate transactionTemplate;
+
+  @Autowired
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
   private File create(File object, R2D2Principal user) throws R2d2TechnicalException, ValidationException, AuthorizationException {
     try {
       setBasicCreationProperties(object, user.getUserAccount());
@@ -84,7 +118,7 @@ public class FileUploadService extends GenericServiceDbImpl<File> implements Fil
     } else {
       try {
         fileRepository.deleteById(id);
-        objectStoreRepository.deleteContainer(id.toString());
+        contentBlobService.deleteContent(file);
         indexingService.deleteFile(id, true);
       } catch (Exception e) {
         throw new R2d2TechnicalException(e);
@@ -107,14 +141,34 @@ public class FileUploadService extends GenericServiceDbImpl<File> implements Fil
 
     checkAa("upload", user);
 
+    // the client announced the SHA-256 of the content, which may already be stored
+    String clientSha256 = file2upload.getSha256();
+    Optional<ContentBlob> reusableBlob = contentBlobService.findReusable(clientSha256, user.getUserAccount());
+
     File file = create(file2upload, user);
-    objectStoreRepository.createContainer(file2upload.getId().toString());
-    String eTag = objectStoreRepository.uploadFile(file2upload, fileStream);
-    //TODO compare client etag with server etag 
-    file.setChecksum(eTag);
+    if (reusableBlob.isPresent() && contentBlobService.reuse(file, reusableBlob.get())) {
+      LOGGER.info("Skipping upload of file " + file.getId() + ", content is already stored in container " + file.getContainer());
+    } else {
+      objectStoreRepository.createContainer(file2upload.getId().toString());
+      DigestingInputStream digestingStream = new DigestingInputStream(fileStream);
+      String eTag = objectStoreRepository.uploadFile(file2upload, digestingStream);
+      if (!verifyChecksum(file.getChecksum(), digestingStream.getMd5(), eTag)
+          || (clientSha256 != null && !clientSha256.equalsIgnoreCase(digestingStream.getSha256()))) {
+        try {
+          objectStoreRepository.deleteContainer(file.getId().toString());
+        } catch (NotFoundException e) {
+          // nothing to clean up
+        }
+        throw new ValidationException(String.format("Checksum mismatch: client sent %s, but content has MD5 %s and SHA-256 %s",
+            clientSha256 != null ? clientSha256 : file.getChecksum(), digestingStream.getMd5(), digestingStream.getSha256()));
+      }
+      file.setChecksum(digestingStream.getMd5());
+      file.setSha256(digestingStream.getSha256());
+      file.setSize(digestingStream.getByteCount());
+      contentBlobService.register(file);
+    }
     file.setState(UploadState.COMPLETE);
-    file.setStorageLocation(objectStoreRepository.getPublicURI(file2upload.getId().toString()));
-    file.setSize(objectStoreRepository.getFileSize(file2upload.getId().toString()));
+    file.setStorageLocation(objectStoreRepository.getPublicURI(getContainer(file)));
     indexingService.reindexFile(file, true);
     return file;
   }
@@ -128,13 +182,16 @@ public class FileUploadService extends GenericServiceDbImpl<File> implements Fil
 
     File file = create(file2upload, user);
     objectStoreRepository.createContainer(file2upload.getId().toString());
+    // all chunks, whichever node receives them, go into this upload
+    file.getStateInfo().setUploadId(objectStoreRepository.initiateUpload(file));
     indexingService.reindexFile(file, true);
 
     return file;
   }
 
   @Override
-  @Transactional(rollbackFor = Throwable.class)
+  // Not transactional: the transfer to the object store must not hold a database connection or lock, so that the parts of a file can
+  // be uploaded in parallel. The chunk is recorded afterwards with a single atomic statement.
   public FileChunk uploadFileChunk(UUID fileId, FileChunk chunk, InputStream fileStream, R2D2Principal user) throws R2d2TechnicalException,
       OptimisticLockingException, ValidationException, NotFoundException, InvalidStateException, AuthorizationException {
 
@@ -143,55 +200,186 @@ public class FileUploadService extends GenericServiceDbImpl<File> implements Fil
     File file = fileRepository.findById(fileId)
         .orElseThrow(() -> new NotFoundException(String.format("File with id %s MOT FOUND!", fileId.toString())));
 
-    List<FileChunk> chunks = file.getStateInfo().getChunks();
-    if (file.getState().equals(UploadState.COMPLETE)) {
+    if (!file.getState().equals(UploadState.INITIATED) && !file.getState().equals(UploadState.ONGOING)) {
       throw new InvalidStateException(String.format("File with id %s is in state %s", fileId.toString(), file.getState().name()));
     }
 
-    if (chunks.stream().anyMatch(c -> c.getNumber() == chunk.getNumber())) {
-      FileChunk fc = chunks.stream().filter(c -> c.getNumber() == chunk.getNumber()).findFirst().get();
-      if (fc.getProgress().equals(Progress.IN_PROGRESS)) {
-        throw new InvalidStateException(String.format("Chunk with number %d is in state %s", fc.getNumber(), fc.getProgress().name()));
-      } else {
-        chunks.removeIf(c -> c.getNumber() == chunk.getNumber());
-      }
+    DigestingInputStream digestingStream = new DigestingInputStream(fileStream);
+    String etag = objectStoreRepository.uploadChunk(file, chunk, digestingStream);
+    if (!verifyChecksum(chunk.getClientEtag(), digestingStream.getMd5(), etag)) {
+      throw new ValidationException(String.format("Checksum mismatch for chunk %d: client sent %s, but content has MD5 %s",
+          chunk.getNumber(), chunk.getClientEtag(), digestingStream.getMd5()));
     }
-
-    String etag = objectStoreRepository.uploadChunk(file, chunk, fileStream);
     chunk.setServerEtag(etag);
+    chunk.setChecksum(digestingStream.getMd5());
+    chunk.setSha256(digestingStream.getSha256());
+    chunk.setSize(digestingStream.getByteCount());
     chunk.setProgress(Progress.COMPLETE);
-    chunks.add(chunk);
-    file.setState(UploadState.ONGOING);
+    recordChunk(fileId, chunk);
 
-    indexingService.reindexFile(file, true);
     return chunk;
   }
 
+  private void recordChunk(UUID fileId, FileChunk chunk) throws R2d2TechnicalException, InvalidStateException {
+    int updated;
+    try {
+      updated = fileRepository.addChunk(fileId, chunk.getNumber(), objectMapper.writeValueAsString(chunk));
+    } catch (JsonProcessingException e) {
+      throw new R2d2TechnicalException(e);
+    }
+    if (updated == 0) {
+      throw new InvalidStateException(
+          String.format("Chunk %d could not be recorded, file with id %s is no longer uploading", chunk.getNumber(), fileId.toString()));
+    }
+  }
+
 
   @Override
   @Transactional(rollbackFor = Throwable.class)
+  // Only switches the file to FINALIZING, the manifest is created asynchronously after the commit, as this takes long for files with
+  // many segments. The outcome is reported by the state of the file and the error message of its upload state.
   public File completeChunkedUpload(UUID fileId, int parts, R2D2Principal user) throws R2d2TechnicalException, OptimisticLockingException,
       ValidationException, NotFoundException, InvalidStateException, AuthorizationException {
     checkAa("upload", user);
     File file = fileRepository.findById(fileId)
         .orElseThrow(() -> new NotFoundException(String.format("File with id %s NOT FOUND!", fileId.toString())));
-    // TODO: check number of parts in object store ...
-    if (file.getStateInfo().getChunks().size() == parts) {
+    if (!file.getState().equals(UploadState.ONGOING)) {
+      throw new InvalidStateException(String.format("File with id %s is in state %s", fileId.toString(), file.getState().name()));
+    }
+    verifyChunks(file, parts);
+
+    file.getStateInfo().setExpectedNumberOfChunks(parts);
+    file.getStateInfo().setErrorMessage(null);
+    file.setState(UploadState.FINALIZING);
+    setBasicModificationProperties(file, user.getUserAccount());
+    indexingService.reindexFile(file, true);
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        taskExecutor.execute(() -> finalizeUpload(fileId));
+      }
+    });
+    return file;
+  }
+
+  /**
+   * Checks that the recorded chunks form a complete upload, i.e. the expected number of consecutively numbered parts, each of them
+   * stored with an ETag.
+   */
+  private void verifyChunks(File file, int parts) throws InvalidStateException {
+    List<FileChunk> chunks = file.getStateInfo().getChunks();
+    if (chunks.size() != parts) {
+      throw new InvalidStateException(String.format("Incorrect number of parts (expected %d, but got %d) in file with id %s", parts,
+          chunks.size(), file.getId().toString()));
+    }
+    IntSummaryStatistics numbers = chunks.stream().mapToInt(FileChunk::getNumber).summaryStatistics();
+    if (chunks.stream().map(FileChunk::getNumber).distinct().count() != parts || numbers.getMax() - numbers.getMin() + 1 != parts) {
+      throw new InvalidStateException(String.format("Parts of file with id %s are not numbered consecutively", file.getId().toString()));
+    }
+    for (FileChunk chunk : chunks) {
+      if (chunk.getServerEtag() == null || !Progress.COMPLETE.equals(chunk.getProgress())) {
+        throw new InvalidStateException(
+            String.format("Part %d of file with id %s is not completely uploaded", chunk.getNumber(), file.getId().toString()));
+      }
+    }
+  }
+
+  /**
+   * Finalizes an upload again, whose finalization didn't finish before the given time, e.g. because its node stopped. The file is claimed
+   * by touching it, so concurrent callers resume it only once.
+   *
+   * @return false, if the file was finalized or resumed in the meantime
+   */
+  public boolean resumeFinalization(UUID fileId, OffsetDateTime before) {
+    if (fileRepository.touchStaleUpload(fileId, UploadState.FINALIZING, before, OffsetDateTime.now()) == 0) {
+      return false;
+    }
+    LOGGER.info("Resuming finalization of upload of file " + fileId);
+    taskExecutor.execute(() -> finalizeUpload(fileId));
+    return true;
+  }
+
+  /**
+   * Creates the manifest of a file in state FINALIZING and completes it. On failure the file goes back to ONGOING with the error
+   * recorded, so the client can upload missing or corrupt parts again and retry. A file which is no longer FINALIZING, e.g. as a resumed
+   * finalization overlapped the original one, is left unchanged.
+   */
+  private void finalizeUpload(UUID fileId) {
+    try {
+      File file = fileRepository.findById(fileId)
+          .orElseThrow(() -> new NotFoundException(String.format("File with id %s NOT FOUND!", fileId.toString())));
+      // the object store checks the segments against the ETags recorded for the chunks
       String etag = objectStoreRepository.createManifest(file);
-      //TODO compare client etag with server etag 
-      file.setChecksum(etag);
-      file.getStateInfo().setExpectedNumberOfChunks(parts);
-      file.setState(UploadState.COMPLETE);
-      file.setStorageLocation(objectStoreRepository.getPublicURI(file.getId().toString()));
-      file.setSize(objectStoreRepository.getFileSize(file.getId().toString()));
-      indexingService.reindexFile(file, true);
+      transactionTemplate.execute(status -> {
+        File finalizedFile = fileRepository.findByIdForUpdate(fileId).filter(f -> UploadState.FINALIZING.equals(f.getState())).orElse(null);
+        if (finalizedFile == null) {
+          return null;
+        }
+        completeFile(finalizedFile, etag);
+        contentBlobService.register(finalizedFile);
+        finalizedFile.setState(UploadState.COMPLETE);
+        finalizedFile.setStorageLocation(objectStoreRepository.getPublicURI(getContainer(finalizedFile)));
+        reindex(finalizedFile);
+        return finalizedFile;
+      });
+    } catch (Exception e) {
+      LOGGER.error("Finalizing upload of file " + fileId + " failed", e);
+      transactionTemplate.execute(status -> {
+        fileRepository.findById(fileId).filter(f -> UploadState.FINALIZING.equals(f.getState())).ifPresent(f -> {
+          f.setState(UploadState.ONGOING);
+          f.getStateInfo().setErrorMessage(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+          reindex(f);
+        });
+        return null;
+      });
+    }
+  }
 
-      return file;
+  /**
+   * Sets checksums and size of a chunked upload from the recorded chunks, the content is not read again.
+   */
+  private void completeFile(File file, String manifestEtag) {
+    List<FileChunk> chunks = new ArrayList<>(file.getStateInfo().getChunks());
+    chunks.sort(Comparator.comparingInt(FileChunk::getNumber));
+    if (chunks.stream().allMatch(c -> c.getChecksum() != null && c.getSha256() != null)) {
+      // composite checksums over the part digests recorded while streaming
+      file.setChecksum(DigestingInputStream.combine(DigestingInputStream.MD5,
+          chunks.stream().map(FileChunk::getChecksum).collect(Collectors.toList())));
+      file.setSha256(DigestingInputStream.combine(DigestingInputStream.SHA256,
+          chunks.stream().map(FileChunk::getSha256).collect(Collectors.toList())));
     } else {
-      throw new InvalidStateException(String.format("Incorrect number of parts (expected %d, but got %d) in file with id %s", parts,
-          file.getStateInfo().getChunks().size(), fileId.toString()));
+      file.setChecksum(manifestEtag);
+    }
+    if (chunks.stream().allMatch(c -> c.getSize() > 0)) {
+      file.setSize(chunks.stream().mapToLong(FileChunk::getSize).sum());
+    } else {
+      file.setSize(objectStoreRepository.getFileSize(file.getId().toString()));
+    }
+  }
+
+  private void reindex(File file) {
+    try {
+      indexingService.reindexFile(file, true);
+    } catch (R2d2TechnicalException e) {
+      throw new IllegalStateException(e);
     }
+  }
+
+  private String getContainer(File file) {
+    return file.getContainer() != null ? file.getContainer() : file.getId().toString();
+  }
 
+  /**
+   * Compares the MD5 computed while streaming with the one sent by the client (if any). A differing ETag of the object store is only
+   * logged, as not every store returns the content MD5 as ETag.
+   */
+  private boolean verifyChecksum(String clientChecksum, String md5, String serverEtag) {
+    // ETags of multipart objects ("...-n") are never a content MD5
+    if (serverEtag != null && !serverEtag.contains("-") && !md5.equalsIgnoreCase(serverEtag.replace("\"", ""))) {
+      LOGGER.warn("Object store returned ETag " + serverEtag + " for content with MD5 " + md5);
+    }
+    return clientChecksum == null || md5.equalsIgnoreCase(clientChecksum);
   }
 
   @Override
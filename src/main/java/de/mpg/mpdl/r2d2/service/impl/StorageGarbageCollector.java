@@ -0,0 +1,302 @@
+package de.mpg.mpdl.r2d2.service.impl;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import de.mpg.mpdl.r2d2.db.ContentBlobRepository;
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.model.FileChunk;
+import de.mpg.mpdl.r2d2.search.service.impl.IndexingService;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+
+/**
+ * Reclaims object store space which is no longer referenced:
+ * <ul>
+ * <li>upload sessions (files in state INITIATED or ONGOING) which were not touched for r2d2.gc.uploadExpiry seconds, together with
+ * their uploaded segments. Uploads in state FINALIZING were completed by the client and are never removed, their finalization is
+ * resumed if it didn't finish within r2d2.gc.finalizationTimeout seconds, e.g. because its node stopped.</li>
+ * <li>containers without a file or shared content referencing them. As a container is created before the file is committed, a
+ * container is only deleted if it was already found orphaned by the previous run.</li>
+ * </ul>
+ * Both are walked page by page, the deletions of a page run in parallel and are throttled to r2d2.gc.deletionsPerSecond.
+ */
+@Service
+public class StorageGarbageCollector {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StorageGarbageCollector.class);
+
+  // states in which an upload may be in progress in the object store
+  static final List<UploadState> UPLOAD_STATES = Arrays.asList(UploadState.INITIATED, UploadState.ONGOING, UploadState.FINALIZING);
+
+  private static final List<UploadState> EXPIRING_STATES = Arrays.asList(UploadState.INITIATED, UploadState.ONGOING);
+
+  @Value("${r2d2.gc.enabled:false}")
+  private boolean enabled;
+
+  @Value("${r2d2.gc.uploadExpiry:86400}")
+  private long uploadExpiry;
+
+  @Value("${r2d2.gc.finalizationTimeout:3600}")
+  private long finalizationTimeout;
+
+  @Value("${r2d2.gc.batchSize:500}")
+  private int batchSize;
+
+  @Value("${r2d2.gc.parallelism:4}")
+  private int parallelism;
+
+  @Value("${r2d2.gc.deletionsPerSecond:20}")
+  private double deletionsPerSecond;
+
+  @Value("${r2d2.gc.maxOrphanCandidates:100000}")
+  private int maxOrphanCandidates;
+
+  @Autowired
+  private FileRepository fileRepository;
+
+  @Autowired
+  private ContentBlobRepository contentBlobRepository;
+
+  @Autowired
+  private ObjectStoreRepository objectStoreRepository;
+
+  @Autowired
+  private IndexingService indexingService;
+
+  @Autowired
+  private FileUploadService fileUploadService;
+
+  private ExecutorService executor;
+
+  private RateLimiter rateLimiter;
+
+  // containers found orphaned by the previous run
+  private Set<String> orphanCandidates = new HashSet<>();
+
+  @PostConstruct
+  public void init() {
+    executor = Executors.newFixedThreadPool(parallelism);
+    rateLimiter = RateLimiter.create(deletionsPerSecond);
+  }
+
+  @PreDestroy
+  public void destroy() {
+    executor.shutdownNow();
+  }
+
+  @Scheduled(fixedDelayString = "${r2d2.gc.interval:3600000}", initialDelayString = "${r2d2.gc.interval:3600000}")
+  public void scheduledCollect() {
+    if (enabled) {
+      Map<String, Object> report = collect(false);
+      LOGGER.info("Storage garbage collection finished: " + report);
+    }
+  }
+
+  /**
+   * Runs a garbage collection.
+   *
+   * @param dryRun only report what would be deleted
+   * @return number of stale uploads, orphaned and deleted containers, reclaimed (or reclaimable) bytes and errors
+   */
+  public synchronized Map<String, Object> collect(boolean dryRun) {
+    Report report = new Report();
+    long start = System.currentTimeMillis();
+    resumeStaleFinalizations(dryRun, report);
+    collectStaleUploads(dryRun, report);
+    collectOrphanedContainers(dryRun, report);
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("dryRun", dryRun);
+    result.put("resumedFinalizations", report.resumedFinalizations.get());
+    result.put("staleUploads", report.staleUploads.get());
+    result.put("orphanedContainers", report.orphanedContainers.get());
+    result.put("deletedContainers", report.deletedContainers.get());
+    result.put(dryRun ? "reclaimableBytes" : "reclaimedBytes", report.bytes.get());
+    result.put("errors", report.errors.get());
+    result.put("duration", System.currentTimeMillis() - start);
+    return result;
+  }
+
+  private void resumeStaleFinalizations(boolean dryRun, Report report) {
+    OffsetDateTime before = OffsetDateTime.now().minusSeconds(finalizationTimeout);
+    UUID after = new UUID(0, 0);
+    List<File> page;
+    do {
+      page = fileRepository.findStaleUploads(Collections.singletonList(UploadState.FINALIZING), before, after,
+          PageRequest.of(0, batchSize));
+      for (File file : page) {
+        if (dryRun || fileUploadService.resumeFinalization(file.getId(), before)) {
+          report.resumedFinalizations.incrementAndGet();
+        }
+        after = file.getId();
+      }
+    } while (page.size() == batchSize);
+  }
+
+  private void collectStaleUploads(boolean dryRun, Report report) {
+    OffsetDateTime before = OffsetDateTime.now().minusSeconds(uploadExpiry);
+    UUID after = new UUID(0, 0);
+    List<File> page;
+    do {
+      page = fileRepository.findStaleUploads(EXPIRING_STATES, before, after, PageRequest.of(0, batchSize));
+      List<Runnable> deletions = new ArrayList<>();
+      for (File file : page) {
+        report.staleUploads.incrementAndGet();
+        // the recorded chunks tell the size without asking the object store
+        long size = file.getStateInfo() != null ? file.getStateInfo().getChunks().stream().mapToLong(FileChunk::getSize).sum() : 0;
+        if (dryRun) {
+          report.bytes.addAndGet(size);
+        } else {
+          deletions.add(() -> deleteStaleUpload(file, before, size, report));
+        }
+        after = file.getId();
+      }
+      runThrottled(deletions, report);
+    } while (page.size() == batchSize);
+  }
+
+  private void deleteStaleUpload(File file, OffsetDateTime before, long size, Report report) {
+    // guarded by the modification date, so an upload which received a chunk in the meantime survives
+    if (fileRepository.deleteStaleUpload(file.getId(), EXPIRING_STATES, before) == 0) {
+      return;
+    }
+    try {
+      objectStoreRepository.abortUpload(file);
+      objectStoreRepository.deleteContainer(file.getId().toString());
+      report.deletedContainers.incrementAndGet();
+      report.bytes.addAndGet(size);
+    } catch (NotFoundException e) {
+      // no content uploaded yet
+    }
+    try {
+      indexingService.deleteFile(file.getId(), false);
+    } catch (Exception e) {
+      LOGGER.warn("Could not remove stale upload " + file.getId() + " from index", e);
+    }
+  }
+
+  private void collectOrphanedContainers(boolean dryRun, Report report) {
+    Set<String> nextCandidates = new HashSet<>();
+    String marker = null;
+    LinkedHashMap<String, Long> page;
+    do {
+      page = objectStoreRepository.listContainers(marker, batchSize);
+      Map<UUID, String> fileContainers = new HashMap<>();
+      for (String container : page.keySet()) {
+        marker = container;
+        try {
+          fileContainers.put(UUID.fromString(container), container);
+        } catch (IllegalArgumentException e) {
+          // not created for a file
+        }
+      }
+      if (fileContainers.isEmpty()) {
+        continue;
+      }
+      fileContainers.keySet().removeAll(fileRepository.findExistingIds(new ArrayList<>(fileContainers.keySet())));
+      fileContainers.values().removeAll(contentBlobRepository.findContainersIn(new ArrayList<>(fileContainers.values())));
+
+      List<Runnable> deletions = new ArrayList<>();
+      for (String container : fileContainers.values()) {
+        report.orphanedContainers.incrementAndGet();
+        Long listedSize = page.get(container);
+        if (dryRun) {
+          deletions.add(() -> report.bytes.addAndGet(getSize(container, listedSize)));
+        } else if (orphanCandidates.contains(container)) {
+          deletions.add(() -> deleteOrphanedContainer(container, listedSize, report));
+        } else if (nextCandidates.size() < maxOrphanCandidates) {
+          nextCandidates.add(container);
+        }
+      }
+      runThrottled(deletions, report);
+    } while (page.size() == batchSize);
+
+    if (!dryRun) {
+      orphanCandidates = nextCandidates;
+    }
+  }
+
+  private void deleteOrphanedContainer(String container, Long listedSize, Report report) {
+    long size = getSize(container, listedSize);
+    try {
+      objectStoreRepository.deleteContainer(container);
+      report.deletedContainers.incrementAndGet();
+      report.bytes.addAndGet(size);
+    } catch (NotFoundException e) {
+      // already gone
+    }
+  }
+
+  private long getSize(String container, Long listedSize) {
+    if (listedSize != null) {
+      return listedSize;
+    }
+    try {
+      return objectStoreRepository.getContainerSize(container);
+    } catch (NotFoundException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Runs the tasks of one page in parallel, but not faster than the configured rate, and waits for all of them.
+   */
+  private void runThrottled(List<Runnable> tasks, Report report) {
+    List<Future<?>> futures = new ArrayList<>();
+    for (Runnable task : tasks) {
+      rateLimiter.acquire();
+      futures.add(executor.submit(task));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        report.errors.incrementAndGet();
+        LOGGER.warn("Storage garbage collection failed for an object", e.getCause());
+      }
+    }
+  }
+
+  private static class Report {
+    private final AtomicLong resumedFinalizations = new AtomicLong();
+    private final AtomicLong staleUploads = new AtomicLong();
+    private final AtomicLong orphanedContainers = new AtomicLong();
+    private final AtomicLong deletedContainers = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+  }
+
+}
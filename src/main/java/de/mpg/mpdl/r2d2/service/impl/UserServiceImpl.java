@@ -11,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import de.mpg.mpdl.r2d2.aa.AaCache;
 import de.mpg.mpdl.r2d2.db.ConfirmationTokenRepository;
 import de.mpg.mpdl.r2d2.db.LocalUserAccountRepository;
 import de.mpg.mpdl.r2d2.db.UserAccountRepository;
@@ -40,6 +41,9 @@ public class UserServiceImpl extends GenericServiceDbImpl<UserAccount> implement
   @Autowired
   private PasswordEncoder passwordEncoder;
 
+  @Autowired
+  private AaCache aaCache;
+
 
   public UserServiceImpl() {
     super(UserAccount.class);
@@ -151,8 +155,10 @@ public class UserServiceImpl extends GenericServiceDbImpl<UserAccount> implement
     final ConfirmationToken token = tokenRepository.findByToken(token4user);
     LocalUserAccount user = token.getUser();
     user.getUser().setActive(true);
+    user.getUser().setModificationDate(Utils.generateCurrentDateTimeForDatabase());
     user = userRepository.save(user);
     tokenRepository.delete(token);
+    aaCache.invalidateUserAccount(user.getUser().getId());
     return user;
   }
 
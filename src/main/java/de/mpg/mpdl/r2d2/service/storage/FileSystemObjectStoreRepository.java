@@ -0,0 +1,351 @@
+package de.mpg.mpdl.r2d2.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.internal.BlobBuilderImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+
+import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.FileChunk;
+import de.mpg.mpdl.r2d2.service.util.DigestingInputStream;
+
+/**
+ * Object store on a local or mounted (e.g. NFS) volume. A container is a directory below fs.location, objects are plain files in it.
+ * Uploads are written through a FileChannel into a temporary file which is atomically moved into place, manifests are assembled by
+ * concatenating the verified segments of the recorded chunks, and downloads can be served zero-copy from the local file.
+ */
+@Repository
+@ConditionalOnProperty(value = "r2d2.storage", havingValue = "fs")
+public class FileSystemObjectStoreRepository implements ObjectStoreRepository {
+
+  private static Logger LOGGER = LoggerFactory.getLogger(FileSystemObjectStoreRepository.class);
+
+  private static final String CONTENT = "content";
+  private static final String SEGMENTS = "segments";
+
+  private static final long TRANSFER_SIZE = 8 * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  private final Path baseDir;
+
+  public FileSystemObjectStoreRepository(@Value("${fs.location}") String location) {
+    this.baseDir = Paths.get(location).toAbsolutePath().normalize();
+  }
+
+  @PostConstruct
+  public void init() throws IOException {
+    Files.createDirectories(baseDir);
+    LOGGER.info("Using file system object store @ " + baseDir);
+  }
+
+  public String uploadChunk(File file, FileChunk chunk, InputStream inputStream) {
+    LOGGER.info("Uploading Chunk to container " + file.getId());
+    Path segment = resolve(file.getId().toString(), SEGMENTS + "/" + String.format("%06d", chunk.getNumber()));
+    return write(segment, inputStream);
+  }
+
+  public String uploadFile(File file, InputStream inputStream) {
+    LOGGER.info("Uploading single file to container " + file.getId());
+    return write(resolve(file.getId().toString(), CONTENT), inputStream);
+  }
+
+  public InputStream downloadFile(String container, String name) {
+    try {
+      return Files.newInputStream(resolve(container, name));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public InputStream downloadFile(String container, String name, long start, long end) {
+    try {
+      FileChannel channel = FileChannel.open(resolve(container, name), StandardOpenOption.READ);
+      channel.position(start);
+      return ByteStreams.limit(Channels.newInputStream(channel), end - start + 1);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public Path getLocalFile(String container, String name) {
+    Path path = resolve(container, name);
+    return Files.isRegularFile(path) ? path : null;
+  }
+
+  public LinkedHashMap<String, Long> listContainers(String marker, int limit) {
+    try (Stream<Path> containers = Files.list(baseDir)) {
+      LinkedHashMap<String, Long> page = new LinkedHashMap<>();
+      containers.filter(Files::isDirectory).map(p -> p.getFileName().toString()).filter(name -> marker == null || name.compareTo(marker) > 0)
+          .sorted().limit(limit).forEach(name -> page.put(name, null));
+      return page;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public long getContainerSize(String container) throws NotFoundException {
+    if (!isContainerExist(container)) {
+      throw new NotFoundException(String.format("Container with id %s does not exist.", container));
+    }
+    try (Stream<Path> objects = Files.walk(resolve(container))) {
+      return objects.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public List<Object> listContainer(String container) throws NotFoundException {
+    if (!isContainerExist(container)) {
+      throw new NotFoundException(String.format("Container with id %s does not exist.", container));
+    }
+    Path containerDir = resolve(container);
+    try (Stream<Path> objects = Files.walk(containerDir)) {
+      return objects.filter(Files::isRegularFile).sorted().map(p -> {
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("name", containerDir.relativize(p).toString());
+        object.put("size", p.toFile().length());
+        return object;
+      }).collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public boolean deleteContainer(String container) throws NotFoundException {
+    if (!isContainerExist(container)) {
+      throw new NotFoundException(String.format("Container with id %s does not exist.", container));
+    }
+    try {
+      deleteRecursively(resolve(container));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+
+  public Blob getFile(String container, String name) {
+    Path path = getLocalFile(container, name);
+    if (path == null) {
+      return null;
+    }
+    return new BlobBuilderImpl().name(name).payload(path.toFile()).build();
+  }
+
+  public String getPublicURI(String container) {
+    // the content is only reachable through the download endpoint, don't expose the storage path
+    return null;
+  }
+
+  public Long getFileSize(String container) {
+    try {
+      return Files.size(resolve(container, CONTENT));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public boolean deleteFile(String container, String name) {
+    try {
+      Files.deleteIfExists(resolve(container, name));
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public boolean isFileExist(String container, String name) {
+    return Files.isRegularFile(resolve(container, name));
+  }
+
+  public boolean isContainerExist(String container) {
+    return Files.isDirectory(resolve(container));
+  }
+
+  public boolean createContainer(String name) {
+    if (isContainerExist(name)) {
+      return false;
+    }
+    try {
+      Files.createDirectories(resolve(name));
+      return true;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public String initiateUpload(File file) {
+    // the segments are uploaded into the container of the file
+    return null;
+  }
+
+  public void abortUpload(File file) {
+    // the segments are deleted with the container
+  }
+
+  /**
+   * Concatenates the segments of the chunks recorded during the upload in chunk number order into the content and removes the segments
+   * afterwards. Like Swift does for an SLO manifest, the size and MD5 of every segment are checked against the chunk, so stray or
+   * replaced segments never end up in the content. The returned ETag is the composite MD5 over the segment ETags.
+   */
+  public String createManifest(File file) {
+    List<FileChunk> chunks = file.getStateInfo().getChunks().stream().sorted(Comparator.comparingInt(FileChunk::getNumber))
+        .collect(Collectors.toList());
+    if (chunks.isEmpty()) {
+      throw new IllegalStateException(String.format("No chunks recorded for file %s", file.getId()));
+    }
+    Path containerDir = resolve(file.getId().toString());
+    Path segmentsDir = containerDir.resolve(SEGMENTS);
+    try {
+      Path tmp = Files.createTempFile(containerDir, ".manifest", null);
+      try {
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+          for (FileChunk chunk : chunks) {
+            appendSegment(out, segmentsDir.resolve(String.format("%06d", chunk.getNumber())), chunk);
+          }
+          out.force(false);
+        }
+        Files.move(tmp, containerDir.resolve(CONTENT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+      deleteRecursively(segmentsDir);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return DigestingInputStream.combine(DigestingInputStream.MD5,
+        chunks.stream().map(c -> c.getServerEtag().replace("\"", "")).collect(Collectors.toList()));
+  }
+
+  /**
+   * Appends the segment of a chunk to the content, checking its size (if recorded) and MD5 against the chunk.
+   */
+  private void appendSegment(FileChannel out, Path segment, FileChunk chunk) throws IOException {
+    if (chunk.getServerEtag() == null || !Files.isRegularFile(segment)) {
+      throw new IllegalStateException(String.format("Chunk %d was not uploaded", chunk.getNumber()));
+    }
+    MessageDigest md5 = newMd5();
+    long size = 0;
+    try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      while (in.read(buffer) > 0) {
+        buffer.flip();
+        size += buffer.remaining();
+        md5.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+    if (chunk.getSize() > 0 && chunk.getSize() != size) {
+      throw new IllegalStateException(
+          String.format("Size of chunk %d does not match: expected %d, found %d", chunk.getNumber(), chunk.getSize(), size));
+    }
+    String eTag = HashCode.fromBytes(md5.digest()).toString();
+    if (!eTag.equalsIgnoreCase(chunk.getServerEtag().replace("\"", ""))) {
+      throw new IllegalStateException(
+          String.format("ETag of chunk %d does not match: expected %s, found %s", chunk.getNumber(), chunk.getServerEtag(), eTag));
+    }
+  }
+
+  /**
+   * Streams the input into a temporary file next to the target and moves it into place, so readers never see partially written
+   * objects.
+   *
+   * @return the MD5 of the written content as ETag
+   */
+  private String write(Path target, InputStream inputStream) {
+    try {
+      Files.createDirectories(target.getParent());
+      Path tmp = Files.createTempFile(target.getParent(), ".upload", null);
+      try {
+        DigestInputStream digestInputStream = new DigestInputStream(inputStream, newMd5());
+        ReadableByteChannel source = Channels.newChannel(digestInputStream);
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+          long position = 0;
+          long transferred;
+          while ((transferred = out.transferFrom(source, position, TRANSFER_SIZE)) > 0) {
+            position += transferred;
+          }
+          out.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return HashCode.fromBytes(digestInputStream.getMessageDigest().digest()).toString();
+      } finally {
+        Files.deleteIfExists(tmp);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static MessageDigest newMd5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void deleteRecursively(Path path) throws IOException {
+    try (Stream<Path> paths = Files.walk(path)) {
+      for (Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.deleteIfExists(p);
+      }
+    } catch (NoSuchFileException e) {
+      // already gone
+    }
+  }
+
+  private Path resolve(String container) {
+    Path path = baseDir.resolve(container).normalize();
+    if (!path.getParent().equals(baseDir)) {
+      throw new IllegalArgumentException(String.format("Invalid container name %s", container));
+    }
+    return path;
+  }
+
+  private Path resolve(String container, String name) {
+    Path containerDir = resolve(container);
+    Path path = containerDir.resolve(name).normalize();
+    if (!path.startsWith(containerDir) || path.equals(containerDir)) {
+      throw new IllegalArgumentException(String.format("Invalid object name %s", name));
+    }
+    return path;
+  }
+
+}
@@ -1,21 +1,55 @@
 package de.mpg.mpdl.r2d2.service.storage;
 
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import org.jclouds.blobstore.domain.Blob;
 
 import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
 import de.mpg.mpdl.r2d2.model.File;
 import de.mpg.mpdl.r2d2.model.FileChunk;
 
 public interface ObjectStoreRepository {
 
-  public String uploadChunk(File file, FileChunk chunk, InputStream inputStream);
+  /**
+   * @throws ValidationException if the store can't take the chunk, e.g. as it has no size and is too large to be buffered
+   */
+  public String uploadChunk(File file, FileChunk chunk, InputStream inputStream) throws ValidationException;
 
   public String uploadFile(File file, InputStream inputStream);
 
   public InputStream downloadFile(String container, String name);
 
+  /**
+   * Reads the byte range from start to end (both inclusive) of an object.
+   */
+  public InputStream downloadFile(String container, String name, long start, long end);
+
+  /**
+   * @return the object as file on a local file system, if the store keeps it there (which allows zero-copy downloads), otherwise
+   *         null
+   */
+  public Path getLocalFile(String container, String name);
+
+  /**
+   * Lists one page of containers in lexical order, for walking through the whole store without loading all names at once.
+   *
+   * @param marker name of the last container of the previous page, null for the first page
+   * @param limit maximum number of containers returned
+   * @return the container names mapped to the bytes they use, or to null if the store does not report it in listings
+   */
+  public LinkedHashMap<String, Long> listContainers(String marker, int limit);
+
+  public List<Object> listContainer(String container) throws NotFoundException;
+
+  /**
+   * @return the number of bytes stored in the container
+   */
+  public long getContainerSize(String container) throws NotFoundException;
+
   public boolean deleteContainer(String container) throws NotFoundException;
 
   public Blob getFile(String container, String name);
@@ -32,6 +66,19 @@ public interface ObjectStoreRepository {
 
   public boolean createContainer(String name);
 
+  /**
+   * Prepares the chunked upload of a file into its existing container.
+   *
+   * @return the id of the upload in the store, which has to be recorded in the upload state of the file, or null if the store needs
+   *         none
+   */
+  public String initiateUpload(File file);
+
+  /**
+   * Discards what was uploaded for a chunked upload which will not be completed, apart from the content of its container.
+   */
+  public void abortUpload(File file);
+
   public String createManifest(File file);
 
 }
@@ -0,0 +1,396 @@
+package de.mpg.mpdl.r2d2.service.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jclouds.blobstore.BlobStore;
+import org.jclouds.blobstore.BlobStoreContext;
+import org.jclouds.blobstore.domain.Blob;
+import org.jclouds.blobstore.domain.BlobMetadata;
+import org.jclouds.blobstore.domain.MultipartPart;
+import org.jclouds.blobstore.domain.MultipartUpload;
+import org.jclouds.blobstore.domain.PageSet;
+import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.domain.StorageType;
+import org.jclouds.blobstore.options.GetOptions;
+import org.jclouds.blobstore.options.ListContainerOptions;
+import org.jclouds.blobstore.options.PutOptions;
+import org.jclouds.io.Payload;
+import org.jclouds.io.payloads.ByteArrayPayload;
+import org.jclouds.io.payloads.InputStreamPayload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import com.google.common.hash.HashCode;
+import com.google.common.io.ByteStreams;
+
+import de.mpg.mpdl.r2d2.S3ObjectStoreConfigurationProperties;
+import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.FileChunk;
+
+/**
+ * Object store on S3 (or any S3 compatible store like MinIO). All containers live in one bucket as key prefixes
+ * ("{container}/{name}"), the existence of a container is marked by an empty marker object. Chunked uploads are mapped onto a native
+ * S3 multipart upload of the content object, which is initiated once when the upload of the file starts and whose id is recorded in
+ * the upload state of the file, so every node uploads the chunks into the same multipart upload. Single uploads are split into parts
+ * which are uploaded in parallel.
+ */
+@Repository
+@ConditionalOnProperty(value = "r2d2.storage", havingValue = "s3")
+public class S3ObjectStoreRepository implements ObjectStoreRepository {
+
+  private static Logger LOGGER = LoggerFactory.getLogger(S3ObjectStoreRepository.class);
+
+  private static final String CONTENT = "content";
+  private static final String CONTAINER_MARKER = ".container";
+
+  @Autowired
+  S3ObjectStoreConfigurationProperties s3Properties;
+
+  private BlobStoreContext context;
+
+  private BlobStore store;
+
+  private String bucket;
+
+  private ExecutorService partUploadExecutor;
+
+  private volatile String publicUriBase;
+
+  public S3ObjectStoreRepository(BlobStoreContext context) {
+    this.context = context;
+    store = context.getBlobStore();
+  }
+
+  @PostConstruct
+  public void init() {
+    bucket = s3Properties.getBucket();
+    if (!store.containerExists(bucket)) {
+      store.createContainerInLocation(null, bucket);
+    }
+    partUploadExecutor = Executors.newFixedThreadPool(s3Properties.getPartConcurrency());
+  }
+
+  @PreDestroy
+  public void destroy() {
+    partUploadExecutor.shutdown();
+  }
+
+  public BlobStoreContext getContext() {
+    return context;
+  }
+
+  public String uploadChunk(File file, FileChunk chunk, InputStream inputStream) throws ValidationException {
+    LOGGER.info("Uploading Chunk to container " + file.getId());
+    MultipartUpload upload = getMultipartUpload(file);
+    Payload payload;
+    if (chunk.getSize() > 0) {
+      payload = new InputStreamPayload(inputStream);
+      payload.getContentMetadata().setContentLength(chunk.getSize());
+    } else {
+      // S3 needs the length of a part in advance, so a chunk without is buffered, up to the part size
+      int partSize = s3Properties.getPartSize() * 1024 * 1024;
+      byte[] content;
+      try {
+        content = readPart(inputStream, partSize + 1);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      if (content.length > partSize) {
+        throw new ValidationException(
+            String.format("Part %d has no Content-Length and is larger than %d bytes", chunk.getNumber(), partSize));
+      }
+      payload = new ByteArrayPayload(content);
+    }
+    if (chunk.getClientEtag() != null) {
+      payload.getContentMetadata().setContentMD5(HashCode.fromString(chunk.getClientEtag()));
+    }
+    MultipartPart part = store.uploadMultipartPart(upload, partNumber(chunk), payload);
+    LOGGER.info("S3 returned etag " + part.partETag());
+    return part.partETag();
+  }
+
+  public String uploadFile(File file, InputStream inputStream) {
+    LOGGER.info("Uploading single file to container " + file.getId());
+    String key = key(file.getId().toString(), CONTENT);
+    int partSize = s3Properties.getPartSize() * 1024 * 1024;
+    try {
+      byte[] firstPart = readPart(inputStream, partSize);
+      if (firstPart.length < partSize) {
+        Payload payload = new ByteArrayPayload(firstPart);
+        payload.getContentMetadata().setContentLength((long) firstPart.length);
+        if (file.getChecksum() != null) {
+          payload.getContentMetadata().setContentMD5(HashCode.fromString(file.getChecksum()));
+        }
+        payload.getContentMetadata().setContentType(file.getFormat());
+        payload.getContentMetadata().setContentDisposition(file.getFilename());
+        String eTag = store.putBlob(bucket, store.blobBuilder(key).payload(payload).build());
+        LOGGER.info("S3 returned etag " + eTag);
+        return eTag;
+      }
+      return uploadInParts(file, key, firstPart, inputStream, partSize);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Splits the stream into parts of partSize and uploads up to partConcurrency of them in parallel. Reading the next part blocks as
+   * long as all upload slots are busy, so at most partConcurrency + 1 parts are held in memory.
+   */
+  private String uploadInParts(File file, String key, byte[] firstPart, InputStream inputStream, int partSize) throws IOException {
+    MultipartUpload upload = store.initiateMultipartUpload(bucket, blobMetadata(key, file), PutOptions.NONE);
+    Semaphore slots = new Semaphore(s3Properties.getPartConcurrency());
+    List<Future<MultipartPart>> futures = new ArrayList<>();
+    try {
+      byte[] part = firstPart;
+      int partNumber = 1;
+      while (part.length > 0) {
+        slots.acquire();
+        final byte[] bytes = part;
+        final int number = partNumber++;
+        futures.add(partUploadExecutor.submit(() -> {
+          try {
+            Payload payload = new ByteArrayPayload(bytes);
+            payload.getContentMetadata().setContentLength((long) bytes.length);
+            return store.uploadMultipartPart(upload, number, payload);
+          } finally {
+            slots.release();
+          }
+        }));
+        part = part.length < partSize ? new byte[0] : readPart(inputStream, partSize);
+      }
+      List<MultipartPart> parts = new ArrayList<>();
+      for (Future<MultipartPart> future : futures) {
+        parts.add(future.get());
+      }
+      String eTag = store.completeMultipartUpload(upload, parts);
+      LOGGER.info("S3 returned etag " + eTag + " for " + parts.size() + " parts");
+      return eTag;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      abort(upload, futures);
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      abort(upload, futures);
+      throw new IllegalStateException(e.getCause());
+    } catch (IOException | RuntimeException e) {
+      abort(upload, futures);
+      throw e;
+    }
+  }
+
+  private void abort(MultipartUpload upload, List<Future<MultipartPart>> futures) {
+    futures.forEach(f -> f.cancel(true));
+    store.abortMultipartUpload(upload);
+  }
+
+  private byte[] readPart(InputStream inputStream, int partSize) throws IOException {
+    return ByteStreams.toByteArray(ByteStreams.limit(inputStream, partSize));
+  }
+
+  public InputStream downloadFile(String container, String name) {
+    try {
+      return store.getBlob(bucket, key(container, name)).getPayload().openStream();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public InputStream downloadFile(String container, String name, long start, long end) {
+    try {
+      return store.getBlob(bucket, key(container, name), GetOptions.Builder.range(start, end)).getPayload().openStream();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public Path getLocalFile(String container, String name) {
+    return null;
+  }
+
+  public LinkedHashMap<String, Long> listContainers(String marker, int limit) {
+    ListContainerOptions options = new ListContainerOptions().maxResults(limit);
+    if (marker != null) {
+      // containers are listed as common prefixes "{container}/"
+      options.afterMarker(key(marker, ""));
+    }
+    LinkedHashMap<String, Long> containers = new LinkedHashMap<>();
+    store.list(bucket, options).stream().filter(smd -> smd.getType() == StorageType.RELATIVE_PATH)
+        .map(smd -> smd.getName().endsWith("/") ? smd.getName().substring(0, smd.getName().length() - 1) : smd.getName())
+        .forEach(name -> containers.put(name, null));
+    return containers;
+  }
+
+  public long getContainerSize(String container) throws NotFoundException {
+    if (!isContainerExist(container)) {
+      throw new NotFoundException(String.format("Container with id %s does not exist.", container));
+    }
+    return listKeys(container).stream().mapToLong(smd -> smd.getSize() != null ? smd.getSize() : 0).sum();
+  }
+
+  public List<Object> listContainer(String container) throws NotFoundException {
+    if (!isContainerExist(container)) {
+      throw new NotFoundException(String.format("Container with id %s does not exist.", container));
+    }
+    return listKeys(container).stream().map(smd -> {
+      Map<String, Object> object = new LinkedHashMap<>();
+      object.put("name", smd.getName().substring(container.length() + 1));
+      object.put("size", smd.getSize());
+      object.put("eTag", smd.getETag());
+      return object;
+    }).collect(Collectors.toList());
+  }
+
+  public boolean deleteContainer(String container) throws NotFoundException {
+    if (!isContainerExist(container)) {
+      throw new NotFoundException(String.format("Container with id %s does not exist.", container));
+    }
+    List<String> keys = listKeys(container).stream().map(StorageMetadata::getName).collect(Collectors.toList());
+    for (int i = 0; i < keys.size(); i += 1000) {
+      store.removeBlobs(bucket, keys.subList(i, Math.min(i + 1000, keys.size())));
+    }
+    store.removeBlob(bucket, key(container, CONTAINER_MARKER));
+    return true;
+  }
+
+  public Blob getFile(String container, String name) {
+    return store.getBlob(bucket, key(container, name));
+  }
+
+  public String getPublicURI(String container) {
+    // all objects share the same base URI, so only the first call needs a metadata request
+    if (publicUriBase != null) {
+      return publicUriBase + "/" + key(container, CONTENT);
+    }
+    String uri = store.blobMetadata(bucket, key(container, CONTENT)).getPublicUri().toString();
+    String path = "/" + key(container, CONTENT);
+    if (uri.endsWith(path)) {
+      publicUriBase = uri.substring(0, uri.length() - path.length());
+    }
+    return uri;
+  }
+
+  public Long getFileSize(String container) {
+    return store.blobMetadata(bucket, key(container, CONTENT)).getSize();
+  }
+
+  public boolean deleteFile(String container, String name) {
+    store.removeBlob(bucket, key(container, name));
+    return true;
+  }
+
+  public boolean isFileExist(String container, String name) {
+    return store.blobExists(bucket, key(container, name));
+  }
+
+  public boolean isContainerExist(String container) {
+    return store.blobExists(bucket, key(container, CONTAINER_MARKER));
+  }
+
+  public boolean createContainer(String name) {
+    if (isContainerExist(name)) {
+      return false;
+    }
+    store.putBlob(bucket, store.blobBuilder(key(name, CONTAINER_MARKER)).payload(new byte[0]).build());
+    return true;
+  }
+
+  public String initiateUpload(File file) {
+    String key = key(file.getId().toString(), CONTENT);
+    return store.initiateMultipartUpload(bucket, blobMetadata(key, file), PutOptions.NONE).id();
+  }
+
+  public void abortUpload(File file) {
+    if (file.getStateInfo() != null && file.getStateInfo().getUploadId() != null) {
+      // pending parts are billed as well
+      try {
+        store.abortMultipartUpload(getMultipartUpload(file));
+      } catch (RuntimeException e) {
+        LOGGER.warn("Could not abort multipart upload of file " + file.getId(), e);
+      }
+    }
+  }
+
+  /**
+   * Completes the multipart upload of the file from the parts recorded during the chunk uploads, so no listing of the uploaded parts
+   * is needed. S3 itself verifies the part ETags.
+   */
+  public String createManifest(File file) {
+    MultipartUpload upload = getMultipartUpload(file);
+    List<FileChunk> chunks = file.getStateInfo().getChunks();
+    List<MultipartPart> parts;
+    if (chunks.stream().allMatch(c -> c.getServerEtag() != null)) {
+      parts = chunks.stream().sorted(Comparator.comparingInt(FileChunk::getNumber))
+          .map(c -> MultipartPart.create(partNumber(c), c.getSize(), c.getServerEtag())).collect(Collectors.toList());
+    } else {
+      parts = store.listMultipartUpload(upload);
+    }
+    return store.completeMultipartUpload(upload, parts);
+  }
+
+  /**
+   * @return the multipart upload initiated for the file, as recorded in its upload state
+   */
+  private MultipartUpload getMultipartUpload(File file) {
+    String uploadId = file.getStateInfo() != null ? file.getStateInfo().getUploadId() : null;
+    if (uploadId == null) {
+      throw new IllegalStateException(String.format("No multipart upload recorded for file %s", file.getId()));
+    }
+    String key = key(file.getId().toString(), CONTENT);
+    return MultipartUpload.create(bucket, key, uploadId, blobMetadata(key, file), PutOptions.NONE);
+  }
+
+  private BlobMetadata blobMetadata(String key, File file) {
+    String contentType = file.getFormat() != null ? file.getFormat() : "application/octet-stream";
+    return store.blobBuilder(key).payload(new byte[0]).contentType(contentType).contentDisposition(file.getFilename()).build()
+        .getMetadata();
+  }
+
+  private List<StorageMetadata> listKeys(String container) {
+    List<StorageMetadata> keys = new ArrayList<>();
+    String marker = null;
+    do {
+      ListContainerOptions options = new ListContainerOptions().prefix(container + "/").recursive();
+      if (marker != null) {
+        options.afterMarker(marker);
+      }
+      PageSet<? extends StorageMetadata> page = store.list(bucket, options);
+      page.stream().filter(smd -> smd.getType() == StorageType.BLOB && !smd.getName().endsWith("/" + CONTAINER_MARKER))
+          .forEach(keys::add);
+      marker = page.getNextMarker();
+    } while (marker != null);
+    return keys;
+  }
+
+  // S3 part numbers start at 1, chunk numbers may start at 0
+  private int partNumber(FileChunk chunk) {
+    return chunk.getNumber() + 1;
+  }
+
+  private String key(String container, String name) {
+    return container + "/" + name;
+  }
+
+}
@@ -1,18 +1,27 @@
 package de.mpg.mpdl.r2d2.service.storage;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+
 import org.jclouds.blobstore.BlobStore;
 import org.jclouds.blobstore.BlobStoreContext;
 import org.jclouds.blobstore.domain.Blob;
 import org.jclouds.blobstore.domain.PageSet;
 import org.jclouds.blobstore.domain.StorageMetadata;
+import org.jclouds.blobstore.options.GetOptions;
 import org.jclouds.io.Payload;
 import org.jclouds.io.payloads.ByteArrayPayload;
 import org.jclouds.io.payloads.InputStreamPayload;
@@ -33,6 +42,8 @@ import org.springframework.stereotype.Repository;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
@@ -56,6 +67,11 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
 
   private BlobStore store;
 
+  // containers known to exist, only positive results are cached
+  private Cache<String, Boolean> existingContainers;
+
+  private volatile String publicUriBase;
+
 
   private static final String CONTENT = "content";
   private static final String SEGMENTS = "segments";
@@ -66,6 +82,12 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
     store = context.getBlobStore();
   }
 
+  @PostConstruct
+  public void init() {
+    existingContainers = CacheBuilder.newBuilder().maximumSize(swiftProperties.getContainerCacheSize())
+        .expireAfterWrite(swiftProperties.getContainerCacheTtl(), TimeUnit.SECONDS).build();
+  }
+
   public BlobStoreContext getContext() {
     return context;
   }
@@ -75,7 +97,10 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
 
 
     LOGGER.info("Uploading Chunk to container " + sf.getId());
-    boolean containerCreated = createContainer(sf.getId().toString());
+    // the container has usually been created by initNewFile on this node, then no request is needed at all
+    if (existingContainers.getIfPresent(sf.getId().toString()) == null) {
+      createContainer(sf.getId().toString());
+    }
     Payload payload = new InputStreamPayload(is);
     //payload.getContentMetadata().setContentLength(f.getSize());
     if (chunk.getClientEtag() != null) {
@@ -148,25 +173,50 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
   }
 
   public InputStream downloadFile(String container, String name) {
+    return openStream(store.getBlob(container, name), container, name);
+  }
+
+  public InputStream downloadFile(String container, String name, long start, long end) {
+    return openStream(store.getBlob(container, name, GetOptions.Builder.range(start, end)), container, name);
+  }
 
-    InputStream inputStream = null;
-    Blob blob = store.getBlob(container, name);
+  // fails like reading the stream would, instead of handing out null
+  private static InputStream openStream(Blob blob, String container, String name) {
     try {
-      inputStream = blob.getPayload().openStream();
+      if (blob == null) {
+        throw new FileNotFoundException(String.format("Object %s not found in container %s", name, container));
+      }
+      return blob.getPayload().openStream();
     } catch (IOException e) {
-      e.printStackTrace();
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public Path getLocalFile(String container, String name) {
+    return null;
+  }
+
+  public LinkedHashMap<String, Long> listContainers(String marker, int limit) {
+    ListContainerOptions options = new ListContainerOptions().limit(limit);
+    if (marker != null) {
+      options.marker(marker);
     }
-    return inputStream;
+    LinkedHashMap<String, Long> containers = new LinkedHashMap<>();
+    // the account listing already contains the bytes used, no request per container needed
+    getContainerApi().list(options).forEach(c -> containers.put(c.getName(), c.getBytesUsed()));
+    return containers;
   }
 
-  public List<Container> listAllContainers() {
-    PageSet<? extends StorageMetadata> set = store.list();
-    SwiftApi api = context.unwrapApi(SwiftApi.class);
-    ContainerApi capi = api.getContainerApi("region1");
-    List<Container> list = capi.list().toList();
-    return list;
-    // return set.stream().map(smd -> smd.getName()).collect(Collectors.toList());
+  public long getContainerSize(String container) throws NotFoundException {
+    Container c = getContainerApi().get(container);
+    if (c == null) {
+      throw new NotFoundException(String.format("Container with id %s does not exist.", container));
+    }
+    return c.getBytesUsed() != null ? c.getBytesUsed() : 0;
+  }
 
+  private ContainerApi getContainerApi() {
+    return context.unwrapApi(SwiftApi.class).getContainerApi(swiftProperties.getRegion());
   }
 
   public List<Object> listContainer(String container) throws NotFoundException {
@@ -187,12 +237,9 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
     if (!isContainerExist(container)) {
       throw new NotFoundException(String.format("Container with id %s does not exist.", container));
     }
-    boolean isContainerGone = false;
+    existingContainers.invalidate(container);
     store.deleteContainer(container);
-    if (!isContainerExist(container)) {
-      isContainerGone = true;
-    }
-    return isContainerGone;
+    return true;
   }
 
   public Blob getFile(String container, String name) {
@@ -200,7 +247,16 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
   }
 
   public String getPublicURI(String container) {
-    return store.blobMetadata(container, CONTENT).getPublicUri().toString();
+    // all objects share the same base URI, so only the first call needs a metadata request
+    if (publicUriBase != null) {
+      return publicUriBase + "/" + container + "/" + CONTENT;
+    }
+    String uri = store.blobMetadata(container, CONTENT).getPublicUri().toString();
+    String path = "/" + container + "/" + CONTENT;
+    if (uri.endsWith(path)) {
+      publicUriBase = uri.substring(0, uri.length() - path.length());
+    }
+    return uri;
   }
 
   public Long getFileSize(String container) {
@@ -209,12 +265,9 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
 
   public boolean deleteFile(String container, String name) {
 
-    boolean isFileRemoved = false;
+    // removeBlob succeeds or throws, no need to check again
     store.removeBlob(container, name);
-    if (!isFileExist(container, name)) {
-      isFileRemoved = true;
-    }
-    return isFileRemoved;
+    return true;
   }
 
   public boolean isFileExist(String container, String name) {
@@ -226,8 +279,13 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
 
   public boolean isContainerExist(String container) {
 
-    boolean isExist = false;
-    isExist = store.containerExists(container);
+    if (existingContainers.getIfPresent(container) != null) {
+      return true;
+    }
+    boolean isExist = store.containerExists(container);
+    if (isExist) {
+      existingContainers.put(container, Boolean.TRUE);
+    }
     return isExist;
   }
 
@@ -236,10 +294,20 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
     boolean success = false;
     if (!isContainerExist(name)) {
       success = store.createContainerInLocation(null, name);
+      existingContainers.put(name, Boolean.TRUE);
     }
     return success;
   }
 
+  public String initiateUpload(File file) {
+    // the segments are uploaded into the container of the file
+    return null;
+  }
+
+  public void abortUpload(File file) {
+    // the segments are deleted with the container
+  }
+
   public String createManifest(String segmentContainer, String segmentPath, String manifestContainer, String contentType) {
     SwiftApi swiftApi = getContext().unwrapApi(SwiftApi.class);
     StaticLargeObjectApi slo = swiftApi.getStaticLargeObjectApi(swiftProperties.getRegion(), manifestContainer);
@@ -258,13 +326,29 @@ public class SwiftObjectStoreRepository implements ObjectStoreRepository {
   }
 
 
+  /**
+   * Creates the SLO manifest from the chunks recorded during the upload, so the segments don't have to be listed. Swift checks the ETag
+   * and size of every segment against the manifest and rejects it on any mismatch.
+   */
   public String createManifest(File sf) {
     String contentType = "application/octet-stream";
     if (sf.getFormat() != null) {
       contentType = sf.getFormat();
     }
+    String container = sf.getId().toString();
+    List<FileChunk> chunks = sf.getStateInfo().getChunks();
+    if (chunks.isEmpty() || chunks.stream().anyMatch(c -> c.getServerEtag() == null || c.getSize() <= 0)) {
+      // chunks recorded without size, fall back to the segments found in the container
+      return createManifest(container, SEGMENTS, container, contentType);
+    }
 
-    return createManifest(sf.getId().toString(), SEGMENTS, sf.getId().toString(), contentType);
-
+    List<Segment> parts = chunks.stream().sorted(Comparator.comparingInt(FileChunk::getNumber))
+        .map(c -> Segment.builder().path(container + "/" + SEGMENTS + "/" + String.format("%06d", c.getNumber()))
+            .etag(c.getServerEtag().replace("\"", "")).sizeBytes(c.getSize()).build())
+        .collect(Collectors.toList());
+    StaticLargeObjectApi slo = getContext().unwrapApi(SwiftApi.class).getStaticLargeObjectApi(swiftProperties.getRegion(), container);
+    Map<String, String> metadata = ImmutableMap.of("parts_in", container + "/" + SEGMENTS);
+    Map<String, String> headers = ImmutableMap.of("Content-Type", contentType);
+    return slo.replaceManifest(CONTENT, parts, metadata, headers);
   }
 }
@@ -0,0 +1,240 @@
+package de.mpg.mpdl.r2d2.service.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.util.StreamUtils;
+
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.model.DatasetVersion;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+
+/**
+ * ZIP export of all files of a dataset version, built on the fly while it is written to the client. The files are read page by page
+ * from the database and the content of the next file is already requested from the object store while the current one is written, so
+ * neither temporary files nor more than one page of files and two open downloads are held at a time. Entries are deflated at level 0,
+ * i.e. written as uncompressed blocks (the content is mostly compressed already, and STORED entries would need the CRC of the content
+ * before it is read), and ZipOutputStream switches to ZIP64 automatically for large archives.
+ */
+public class DatasetArchive {
+
+  private static Logger LOGGER = LoggerFactory.getLogger(DatasetArchive.class);
+
+  private static final int PAGE_SIZE = 500;
+
+  private final DatasetVersion datasetVersion;
+
+  private final FileRepository fileRepository;
+
+  private final ObjectStoreRepository storeRepository;
+
+  private final Executor executor;
+
+  public DatasetArchive(DatasetVersion datasetVersion, FileRepository fileRepository, ObjectStoreRepository storeRepository,
+      Executor executor) {
+    this.datasetVersion = datasetVersion;
+    this.fileRepository = fileRepository;
+    this.storeRepository = storeRepository;
+    this.executor = executor;
+  }
+
+  public DatasetVersion getDatasetVersion() {
+    return datasetVersion;
+  }
+
+  /**
+   * @return the file name of the archive, derived from the dataset id and version number
+   */
+  public String getFilename() {
+    return datasetVersion.getId() + "_v" + datasetVersion.getVersionNumber() + ".zip";
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    Set<String> entryNames = new HashSet<>();
+
+    Iterator<File> files = new FileIterator();
+    File file = files.hasNext() ? files.next() : null;
+    CompletableFuture<InputStream> content = file != null ? open(file) : null;
+    ArchiveOutputStream target = new ArchiveOutputStream(out);
+    // closing the zip stream releases its deflater, the servlet stream is left open
+    try (ZipOutputStream zip = new ZipOutputStream(target)) {
+      try {
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        while (file != null) {
+          InputStream current = await(content);
+          // request the following file while the current one is written
+          File following = files.hasNext() ? files.next() : null;
+          content = following != null ? open(following) : null;
+
+          try (InputStream in = current) {
+            ZipEntry entry = new ZipEntry(uniqueName(file, entryNames));
+            if (file.getModificationDate() != null) {
+              entry.setLastModifiedTime(FileTime.from(file.getModificationDate().toInstant()));
+            }
+            zip.putNextEntry(entry);
+            StreamUtils.copy(in, zip);
+            zip.closeEntry();
+          }
+          file = following;
+        }
+        zip.finish();
+      } catch (IOException | RuntimeException e) {
+        // a failed archive must stay incomplete, so the trailer written on close is discarded
+        target.abort();
+        throw e;
+      }
+    } finally {
+      if (content != null) {
+        // client aborted, don't leak the prefetched download
+        content.thenAccept(this::closeQuietly);
+      }
+    }
+  }
+
+  private CompletableFuture<InputStream> open(File file) {
+    FileDownloadWrapper content = new FileDownloadWrapper(file, storeRepository);
+    return CompletableFuture.supplyAsync(content::readFile, executor);
+  }
+
+  private InputStream await(CompletableFuture<InputStream> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException("Error reading file from object store", e.getCause());
+    }
+  }
+
+  private void closeQuietly(InputStream in) {
+    try {
+      in.close();
+    } catch (IOException e) {
+      LOGGER.debug("Error closing prefetched download", e);
+    }
+  }
+
+  /**
+   * File names are chosen by the uploader, so they are reduced to a relative path without "." and ".." segments, which can't escape the
+   * directory the archive is extracted to. They are only unique per upload, so duplicates get a counter appended before the extension.
+   */
+  private static String uniqueName(File file, Set<String> entryNames) {
+    String filename = file.getFilename() != null ? file.getFilename().replace('\\', '/') : "";
+    String name = Arrays.stream(filename.split("/")).filter(segment -> !segment.isEmpty() && !".".equals(segment) && !"..".equals(segment))
+        .collect(Collectors.joining("/"));
+    if (name.isEmpty()) {
+      name = file.getId().toString();
+    }
+    String candidate = name;
+    int dot = name.lastIndexOf('.');
+    for (int i = 1; !entryNames.add(candidate); i++) {
+      candidate = dot > 0 ? name.substring(0, dot) + " (" + i + ")" + name.substring(dot) : name + " (" + i + ")";
+    }
+    return candidate;
+  }
+
+  /**
+   * Passes the archive on to the response without closing it, and drops everything written after the archive was aborted.
+   */
+  private static class ArchiveOutputStream extends FilterOutputStream {
+
+    private boolean aborted;
+
+    private ArchiveOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    private void abort() {
+      aborted = true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (!aborted) {
+        out.write(b);
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (!aborted) {
+        out.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!aborted) {
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Iterates over the files of the version with content, loading one page at a time.
+   */
+  private class FileIterator implements Iterator<File> {
+
+    private int pageNumber = 0;
+
+    private Page<File> page;
+
+    private Iterator<File> pageIterator;
+
+    private File next;
+
+    @Override
+    public boolean hasNext() {
+      while (next == null) {
+        if (pageIterator == null || !pageIterator.hasNext()) {
+          if (page != null && !page.hasNext()) {
+            return false;
+          }
+          page = fileRepository.findAllForVersion(datasetVersion.getVersionId(),
+              PageRequest.of(pageNumber++, PAGE_SIZE, Sort.by("id")));
+          pageIterator = page.iterator();
+          if (!pageIterator.hasNext()) {
+            return false;
+          }
+        }
+        File candidate = pageIterator.next();
+        if (!UploadState.INITIATED.equals(candidate.getState()) && !UploadState.ONGOING.equals(candidate.getState())
+            && !UploadState.FINALIZING.equals(candidate.getState())) {
+          next = candidate;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public File next() {
+      hasNext();
+      File file = next;
+      next = null;
+      return file;
+    }
+  }
+
+}
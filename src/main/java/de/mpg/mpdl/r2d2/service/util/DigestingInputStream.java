@@ -0,0 +1,137 @@
+package de.mpg.mpdl.r2d2.service.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * InputStream wrapper which computes the MD5 and SHA-256 digests and the size of the content while it is read, so the checksums of an
+ * upload are available as soon as the object store has consumed the stream, without buffering or reading it a second time.
+ */
+public class DigestingInputStream extends FilterInputStream {
+
+  public static final String MD5 = "MD5";
+
+  public static final String SHA256 = "SHA-256";
+
+  private final MessageDigest md5;
+
+  private final MessageDigest sha256;
+
+  private long byteCount;
+
+  private String md5Hex;
+
+  private String sha256Hex;
+
+  public DigestingInputStream(InputStream in) {
+    super(in);
+    this.md5 = getDigest(MD5);
+    this.sha256 = getDigest(SHA256);
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = in.read();
+    if (b != -1) {
+      md5.update((byte) b);
+      sha256.update((byte) b);
+      byteCount++;
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int read = in.read(b, off, len);
+    if (read > 0) {
+      md5.update(b, off, read);
+      sha256.update(b, off, read);
+      byteCount += read;
+    }
+    return read;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    // skipped bytes have to be digested as well
+    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+      if (read == -1) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {}
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  public long getByteCount() {
+    return byteCount;
+  }
+
+  /**
+   * @return the hex encoded MD5 of all bytes read so far. Finishes the digest, so must only be called after the stream was consumed.
+   */
+  public String getMd5() {
+    if (md5Hex == null) {
+      md5Hex = HashCode.fromBytes(md5.digest()).toString();
+    }
+    return md5Hex;
+  }
+
+  /**
+   * @return the hex encoded SHA-256 of all bytes read so far. Finishes the digest, so must only be called after the stream was
+   *         consumed.
+   */
+  public String getSha256() {
+    if (sha256Hex == null) {
+      sha256Hex = HashCode.fromBytes(sha256.digest()).toString();
+    }
+    return sha256Hex;
+  }
+
+  /**
+   * Combines the digests of the parts of a chunked upload (in part order) into a composite checksum of the whole file, i.e. the digest
+   * of the concatenated binary part digests followed by "-" and the number of parts (the scheme S3 uses for multipart ETags).
+   *
+   * @param algorithm MD5 or SHA-256
+   * @param partDigests the hex encoded digests of the parts
+   * @return the composite checksum
+   */
+  public static String combine(String algorithm, List<String> partDigests) {
+    MessageDigest digest = getDigest(algorithm);
+    for (String partDigest : partDigests) {
+      digest.update(HashCode.fromString(partDigest.toLowerCase()).asBytes());
+    }
+    return HashCode.fromBytes(digest.digest()).toString() + "-" + partDigests.size();
+  }
+
+  private static MessageDigest getDigest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
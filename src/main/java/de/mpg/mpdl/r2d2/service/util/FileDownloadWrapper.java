@@ -1,8 +1,17 @@
 package de.mpg.mpdl.r2d2.service.util;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.util.StreamUtils;
 
 import de.mpg.mpdl.r2d2.model.File;
 import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
@@ -37,8 +46,59 @@ public class FileDownloadWrapper {
     this.storeRepository = storeRepository;
   }
 
+  /**
+   * @return the container holding the content, which is shared with other files if the content was deduplicated
+   */
+  public String getContainer() {
+    return file.getContainer() != null ? file.getContainer() : file.getId().toString();
+  }
+
   public InputStream readFile() {
-    return storeRepository.downloadFile(file.getId().toString(), "content");
+    return storeRepository.downloadFile(getContainer(), "content");
+  }
+
+  public InputStream readFile(long start, long end) {
+    return storeRepository.downloadFile(getContainer(), "content", start, end);
+  }
+
+  /**
+   * @return the content as local file, if the object store keeps it on a local file system, otherwise null
+   */
+  public Path getLocalFile() {
+    return storeRepository.getLocalFile(getContainer(), "content");
+  }
+
+  /**
+   * Writes the byte range from start to end (both inclusive) of the content to the given stream. Local files are transferred with
+   * FileChannel.transferTo instead of being copied through a heap buffer.
+   *
+   * @throws EOFException if the content ends before end, after the available bytes are written
+   */
+  public void writeTo(OutputStream out, long start, long end) throws IOException {
+    Path localFile = getLocalFile();
+    if (localFile != null) {
+      WritableByteChannel target = Channels.newChannel(out);
+      try (FileChannel channel = FileChannel.open(localFile, StandardOpenOption.READ)) {
+        // the file may be shorter than its recorded size, e.g. if it was truncated
+        long last = Math.min(end, channel.size() - 1);
+        long position = start;
+        while (position <= last) {
+          long transferred = channel.transferTo(position, last - position + 1, target);
+          if (transferred == 0 && position >= channel.size()) {
+            break;
+          }
+          position += transferred;
+        }
+        if (position <= end) {
+          throw new EOFException(
+              String.format("Content of file %s ends at byte %d, before the requested end %d", file.getId(), position, end));
+        }
+      }
+    } else {
+      try (InputStream in = readFile(start, end)) {
+        StreamUtils.copy(in, out);
+      }
+    }
   }
 
 }
@@ -7,6 +7,8 @@ import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.Collections;
 
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.DeprecationHandler;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
@@ -17,6 +19,8 @@ import org.elasticsearch.search.SearchModule;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 
+import com.fasterxml.jackson.databind.ObjectReader;
+
 import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 
 public class Utils {
@@ -42,6 +46,16 @@ public class Utils {
   }
 
 
+  /**
+   * Reads the source of a search hit directly from its bytes, without creating a String copy of it first.
+   */
+  public static <T> T readSource(ObjectReader reader, BytesReference source) throws IOException {
+    // no copy if the source is backed by a single array, which is the case for hits parsed from a response
+    BytesRef bytes = source.toBytesRef();
+    return reader.readValue(bytes.bytes, bytes.offset, bytes.length);
+  }
+
+
   //Truncate to microseconds, as the database doesn't support nanoseconds
   public static OffsetDateTime generateCurrentDateTimeForDatabase() {
     return OffsetDateTime.now().truncatedTo(ChronoUnit.MICROS);
@@ -0,0 +1,104 @@
+package de.mpg.mpdl.r2d2.aa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import de.mpg.mpdl.r2d2.db.ReviewTokenRepository;
+import de.mpg.mpdl.r2d2.db.UserAccountRepository;
+import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
+
+/**
+ * Test class for AaCache.
+ */
+@ExtendWith(MockitoExtension.class)
+class AaCacheTest {
+
+  @Mock
+  private UserAccountRepository userAccountRepository;
+
+  @Mock
+  private ReviewTokenRepository reviewTokenRepository;
+
+  @InjectMocks
+  private AaCache aaCache;
+
+  @BeforeEach
+  void setUp() {
+    ReflectionTestUtils.setField(aaCache, "enabled", true);
+    ReflectionTestUtils.setField(aaCache, "maxSize", 100L);
+    ReflectionTestUtils.setField(aaCache, "ttl", 300L);
+    ReflectionTestUtils.setField(aaCache, "revalidate", 300L);
+    aaCache.init();
+  }
+
+  @Test
+  void testUserAccountIsLoadedAgainAfterInvalidation() {
+    //Given
+    UserAccount user = TestDataFactory.anUser().id(UUID.randomUUID()).build();
+    Mockito.when(userAccountRepository.findById(user.getId())).thenReturn(Optional.of(user));
+
+    //When
+    aaCache.getUserAccount(user.getId());
+    Optional<UserAccount> cached = aaCache.getUserAccount(user.getId());
+    aaCache.invalidateUserAccount(user.getId());
+    aaCache.getUserAccount(user.getId());
+
+    //Then
+    assertThat(cached).containsSame(user);
+    Mockito.verify(userAccountRepository, Mockito.times(2)).findById(user.getId());
+    @SuppressWarnings("unchecked")
+    Map<String, Object> statistics = (Map<String, Object>) aaCache.getStatistics().get("userAccounts");
+    assertThat(statistics).containsEntry("hits", 1L).containsEntry("misses", 2L);
+  }
+
+  @Test
+  void testUserAccountChangedByAnotherNodeIsLoadedAgain() {
+    //Given
+    ReflectionTestUtils.setField(aaCache, "revalidate", 0L);
+    UserAccount user = TestDataFactory.anUser().id(UUID.randomUUID()).build();
+    user.setModificationDate(OffsetDateTime.now().minusMinutes(1));
+    UserAccount changedUser = TestDataFactory.anUser().id(user.getId()).build();
+    changedUser.setModificationDate(OffsetDateTime.now());
+    Mockito.when(userAccountRepository.findById(user.getId())).thenReturn(Optional.of(user), Optional.of(changedUser));
+    Mockito.when(userAccountRepository.findModificationDateById(user.getId())).thenReturn(Optional.of(user.getModificationDate()),
+        Optional.of(changedUser.getModificationDate()));
+
+    //When
+    aaCache.getUserAccount(user.getId());
+    Optional<UserAccount> unchanged = aaCache.getUserAccount(user.getId());
+    Optional<UserAccount> changed = aaCache.getUserAccount(user.getId());
+
+    //Then
+    assertThat(unchanged).containsSame(user);
+    assertThat(changed).containsSame(changedUser);
+    Mockito.verify(userAccountRepository, Mockito.times(2)).findById(user.getId());
+  }
+
+  @Test
+  void testUnknownReviewTokenIsNotCached() {
+    //Given
+    Mockito.when(reviewTokenRepository.findByToken("unknown")).thenReturn(Optional.empty());
+
+    //When
+    aaCache.getReviewToken("unknown");
+    aaCache.getReviewToken("unknown");
+
+    //Then
+    Mockito.verify(reviewTokenRepository, Mockito.times(2)).findByToken("unknown");
+  }
+
+}
@@ -1,7 +1,6 @@
 package de.mpg.mpdl.r2d2.aa;
 
 import de.mpg.mpdl.r2d2.R2D2Application;
-import de.mpg.mpdl.r2d2.db.ReviewTokenRepository;
 import de.mpg.mpdl.r2d2.db.UserAccountRepository;
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.model.Dataset;
@@ -47,7 +46,7 @@ class AuthorizationServiceTest {
   private UserAccountRepository userAccountRepository;
 
   @Mock
-  private ReviewTokenRepository reviewTokenRepository;
+  private AaCache aaCache;
 
   private static Stream<Arguments> provideArgumentsForDatasetVersionServiceAuthorization() {
     String datasetVersionServiceName = DatasetVersionServiceDbImpl.class.getCanonicalName();
@@ -127,7 +126,7 @@ class AuthorizationServiceTest {
 
     if (hasReviewToken) {
       ReviewToken reviewToken = ReviewTokenBuilder.aReviewToken().token("TokenString").dataset(dataset.getId()).build();
-      Mockito.when(this.reviewTokenRepository.findByToken(Mockito.any())).thenReturn(Optional.of(reviewToken));
+      Mockito.when(this.aaCache.getReviewToken(Mockito.any())).thenReturn(Optional.of(reviewToken));
       r2D2Principal.setReviewToken(reviewToken.getToken());
     }
 
@@ -168,7 +167,7 @@ class AuthorizationServiceTest {
 
     if (hasReviewToken) {
       ReviewToken reviewToken = ReviewTokenBuilder.aReviewToken().token("TokenString").dataset(dataset.getId()).build();
-      Mockito.when(this.reviewTokenRepository.findByToken(Mockito.any())).thenReturn(Optional.of(reviewToken));
+      Mockito.when(this.aaCache.getReviewToken(Mockito.any())).thenReturn(Optional.of(reviewToken));
       r2D2Principal.setReviewToken(reviewToken.getToken());
     }
 
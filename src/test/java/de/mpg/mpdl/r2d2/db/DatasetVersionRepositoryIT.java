@@ -4,6 +4,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,6 +35,9 @@ public class DatasetVersionRepositoryIT {
   @Autowired
   private DatasetVersionRepository datasetVersionRepository;
 
+  @Autowired
+  private DatasetRepository datasetRepository;
+
   @Test
   public void testFindLatestVersion() {
     //Given
@@ -52,6 +56,42 @@ public class DatasetVersionRepositoryIT {
     assertThat(latestDatasetVersion.getVersionNumber()).isEqualTo(latestVersionNumber);
   }
 
+  @Test
+  public void testGetLatestVersionByPointer() {
+    //Given
+    Dataset dataset = TestDataFactory.aDataset().latestVersion(2).latestPublicVersion(1).build();
+    DatasetVersion datasetVersion1 = TestDataFactory.aDatasetVersion().dataset(dataset).build();
+    DatasetVersion datasetVersion2 = TestDataFactory.aDatasetVersion().dataset(dataset).versionNumber(2).build();
+
+    testDataManager.persist(datasetVersion1, datasetVersion2);
+
+    //When
+    DatasetVersion latestDatasetVersion = datasetVersionRepository.getLatestVersion(dataset.getId());
+    DatasetVersion latestPublicDatasetVersion = datasetVersionRepository.findLatestPublicVersionByPointer(dataset.getId());
+
+    //Then
+    assertThat(latestDatasetVersion.getVersionNumber()).isEqualTo(2);
+    assertThat(latestPublicDatasetVersion.getVersionNumber()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFindInconsistentLatestVersion() {
+    //Given
+    Dataset consistentDataset = TestDataFactory.aDataset().latestVersion(1).build();
+    Dataset inconsistentDataset = TestDataFactory.aDataset().latestVersion(1).build();
+    DatasetVersion consistentVersion = TestDataFactory.aDatasetVersion().dataset(consistentDataset).build();
+    DatasetVersion datasetVersion1 = TestDataFactory.aDatasetVersion().dataset(inconsistentDataset).build();
+    DatasetVersion datasetVersion2 = TestDataFactory.aDatasetVersion().dataset(inconsistentDataset).versionNumber(2).build();
+
+    testDataManager.persist(consistentVersion, datasetVersion1, datasetVersion2);
+
+    //When
+    List<UUID> inconsistentIds = datasetRepository.findIdsWithInconsistentLatestVersion();
+
+    //Then
+    assertThat(inconsistentIds).containsExactly(inconsistentDataset.getId());
+  }
+
   @Test
   public void testSaveDatasetVersionWithMetadata() {
     //Given
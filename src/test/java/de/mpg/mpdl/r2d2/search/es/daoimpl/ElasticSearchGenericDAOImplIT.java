@@ -0,0 +1,62 @@
+package de.mpg.mpdl.r2d2.search.es.daoimpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.search.dao.FileDaoEs;
+import de.mpg.mpdl.r2d2.search.model.FileIto;
+import de.mpg.mpdl.r2d2.util.R2D2IntegrationTest;
+
+@R2D2IntegrationTest
+class ElasticSearchGenericDAOImplIT {
+
+  @Autowired
+  private FileDaoEs fileDao;
+
+  @Value("${elasticsearch.bulk.flushInterval:1000}")
+  private long bulkFlushInterval;
+
+  @Test
+  void testImmediateWriteIsNotOverwrittenByEarlierCollectedWrite() throws R2d2TechnicalException, InterruptedException {
+    //Given
+    String id = UUID.randomUUID().toString();
+    this.fileDao.create(id, aFileIto(id, "old"));
+
+    //When
+    this.fileDao.createImmediately(id, aFileIto(id, "new"));
+    // the bulk processor would have sent the collected write by now
+    Thread.sleep(2 * bulkFlushInterval);
+
+    //Then
+    assertThat(this.fileDao.get(id)).isNotNull().extracting(FileIto::getFilename).isEqualTo("new");
+  }
+
+  @Test
+  void testImmediateWriteIsNotDeletedByEarlierCollectedDelete() throws R2d2TechnicalException, InterruptedException {
+    //Given
+    String id = UUID.randomUUID().toString();
+    this.fileDao.createImmediately(id, aFileIto(id, "old"));
+    this.fileDao.delete(id);
+
+    //When
+    this.fileDao.createImmediately(id, aFileIto(id, "new"));
+    Thread.sleep(2 * bulkFlushInterval);
+
+    //Then
+    assertThat(this.fileDao.get(id)).isNotNull().extracting(FileIto::getFilename).isEqualTo("new");
+  }
+
+  private FileIto aFileIto(String id, String filename) {
+    FileIto fileIto = new FileIto();
+    fileIto.setId(UUID.fromString(id));
+    fileIto.setFilename(filename);
+    return fileIto;
+  }
+
+}
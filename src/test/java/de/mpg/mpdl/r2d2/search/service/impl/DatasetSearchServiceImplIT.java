@@ -1,7 +1,9 @@
 package de.mpg.mpdl.r2d2.search.service.impl;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.function.Function;
 
@@ -10,17 +12,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import de.mpg.mpdl.r2d2.exceptions.AuthorizationException;
 import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.exceptions.ValidationException;
 import de.mpg.mpdl.r2d2.model.Dataset;
 import de.mpg.mpdl.r2d2.model.DatasetVersion;
 import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+import de.mpg.mpdl.r2d2.search.model.DatasetFacet;
 import de.mpg.mpdl.r2d2.search.model.DatasetVersionIto;
+import de.mpg.mpdl.r2d2.search.model.FacetBucket;
 import de.mpg.mpdl.r2d2.search.model.SearchQuery;
 import de.mpg.mpdl.r2d2.search.model.SearchRecord;
 import de.mpg.mpdl.r2d2.search.model.SearchResult;
 import de.mpg.mpdl.r2d2.util.R2D2IntegrationTest;
 import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
 import de.mpg.mpdl.r2d2.util.testdata.TestDataIndexer;
+import de.mpg.mpdl.r2d2.util.testdata.builder.DatasetVersionMetadataBuilder;
 
 @R2D2IntegrationTest
 public class DatasetSearchServiceImplIT {
@@ -32,7 +38,7 @@ public class DatasetSearchServiceImplIT {
   private TestDataIndexer testDataIndexer;
 
   @Test
-  void testSearchWithEmptyQuery() throws R2d2TechnicalException, AuthorizationException {
+  void testSearchWithEmptyQuery() throws R2d2TechnicalException, AuthorizationException, ValidationException {
     //Given
     Dataset dataset = TestDataFactory.aDataset().id(UUID.randomUUID()).build();
     Dataset dataset2 = TestDataFactory.aDataset().id(UUID.randomUUID()).build();
@@ -54,7 +60,7 @@ public class DatasetSearchServiceImplIT {
   }
 
   @Test
-  void testSearchReturnsAuthorized() throws R2d2TechnicalException, AuthorizationException {
+  void testSearchReturnsAuthorized() throws R2d2TechnicalException, AuthorizationException, ValidationException {
     //Given
     UserAccount userAccount = TestDataFactory.anUser().id(UUID.randomUUID()).build();
     R2D2Principal r2d2Principal = TestDataFactory.aR2D2Principal().userAccount(userAccount).build();
@@ -81,7 +87,7 @@ public class DatasetSearchServiceImplIT {
   }
 
   @Test
-  void testSearchMineOnly() throws R2d2TechnicalException, AuthorizationException {
+  void testSearchMineOnly() throws R2d2TechnicalException, AuthorizationException, ValidationException {
     //Given
     UserAccount userAccount = TestDataFactory.anUser().id(UUID.randomUUID()).build();
     R2D2Principal r2d2Principal = TestDataFactory.aR2D2Principal().userAccount(userAccount).build();
@@ -108,7 +114,7 @@ public class DatasetSearchServiceImplIT {
   }
 
   @Test
-  void testSearchWithQuery() throws R2d2TechnicalException, AuthorizationException {
+  void testSearchWithQuery() throws R2d2TechnicalException, AuthorizationException, ValidationException {
     //Given
     UserAccount userAccount = TestDataFactory.anUser().id(UUID.randomUUID()).build();
     R2D2Principal r2d2Principal = TestDataFactory.aR2D2Principal().userAccount(userAccount).build();
@@ -134,4 +140,52 @@ public class DatasetSearchServiceImplIT {
         .containsExactly(datasetVersion.getId());
   }
 
+  @Test
+  void testSearchWithFacets() throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    //Given
+    Dataset dataset = TestDataFactory.aDataset().id(UUID.randomUUID()).build();
+    Dataset dataset2 = TestDataFactory.aDataset().id(UUID.randomUUID()).build();
+    DatasetVersion datasetVersion = TestDataFactory.aDatasetVersion().dataset(dataset).state(Dataset.State.PUBLIC)
+        .metadata(DatasetVersionMetadataBuilder.aDatasetVersionMetadata().genres(Arrays.asList("biology")).build()).build();
+    DatasetVersion datasetVersion2 = TestDataFactory.aDatasetVersion().dataset(dataset2).state(Dataset.State.PUBLIC)
+        .metadata(DatasetVersionMetadataBuilder.aDatasetVersionMetadata().genres(Arrays.asList("biology", "chemistry")).build()).build();
+
+    this.testDataIndexer.index(datasetVersion, datasetVersion2);
+
+    SearchQuery searchQuery = new SearchQuery();
+
+    //When
+    SearchResult<DatasetVersionIto> searchResult =
+        datasetSearchServiceImpl.search(searchQuery, Arrays.asList(DatasetFacet.GENRES), false, null);
+
+    //Then
+    assertThat(searchResult.getTotal()).isEqualTo(2);
+    assertThat(searchResult.getFacets()).containsOnlyKeys(DatasetFacet.GENRES.getName());
+    assertThat(searchResult.getFacets().get(DatasetFacet.GENRES.getName())).extracting(FacetBucket::getValue, FacetBucket::getCount)
+        .containsExactly(tuple("biology", 2L), tuple("chemistry", 1L));
+  }
+
+  @Test
+  void testFacetValuesAreNotNormalized() throws R2d2TechnicalException, AuthorizationException, ValidationException {
+    //Given
+    Dataset dataset = TestDataFactory.aDataset().id(UUID.randomUUID()).build();
+    Dataset dataset2 = TestDataFactory.aDataset().id(UUID.randomUUID()).build();
+    DatasetVersion datasetVersion = TestDataFactory.aDatasetVersion().dataset(dataset).state(Dataset.State.PUBLIC)
+        .metadata(DatasetVersionMetadataBuilder.aDatasetVersionMetadata().keywords(Arrays.asList("Müller", "RNA-Seq")).build()).build();
+    DatasetVersion datasetVersion2 = TestDataFactory.aDatasetVersion().dataset(dataset2).state(Dataset.State.PUBLIC)
+        .metadata(DatasetVersionMetadataBuilder.aDatasetVersionMetadata().keywords(Arrays.asList("muller")).build()).build();
+
+    this.testDataIndexer.index(datasetVersion, datasetVersion2);
+
+    SearchQuery searchQuery = new SearchQuery();
+
+    //When
+    SearchResult<DatasetVersionIto> searchResult =
+        datasetSearchServiceImpl.search(searchQuery, Arrays.asList(DatasetFacet.KEYWORDS), false, null);
+
+    //Then
+    assertThat(searchResult.getFacets().get(DatasetFacet.KEYWORDS.getName())).extracting(FacetBucket::getValue, FacetBucket::getCount)
+        .containsExactlyInAnyOrder(tuple("Müller", 1L), tuple("RNA-Seq", 1L), tuple("muller", 1L));
+  }
+
 }
@@ -0,0 +1,148 @@
+package de.mpg.mpdl.r2d2.search.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.mpg.mpdl.r2d2.db.IndexEventRepository;
+import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.IndexEvent;
+import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+import de.mpg.mpdl.r2d2.search.dao.FileDaoEs;
+import de.mpg.mpdl.r2d2.util.R2D2IntegrationTest;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataManager;
+
+@R2D2IntegrationTest
+//Keep the background dispatcher from picking up the events of the test, it is run explicitly
+@TestPropertySource(properties = "r2d2.indexing.dispatchInterval=3600000")
+class IndexEventDispatcherIT {
+
+  @Autowired
+  private IndexingService indexingService;
+
+  @Autowired
+  private IndexEventDispatcher indexEventDispatcher;
+
+  @Autowired
+  private IndexEventRepository indexEventRepository;
+
+  @Autowired
+  private FileDaoEs fileDao;
+
+  @Autowired
+  private RestHighLevelClient client;
+
+  @Autowired
+  private TestDataManager testDataManager;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private TransactionTemplate transactionTemplate;
+
+  private File file;
+
+  @BeforeEach
+  void setUp() {
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    UserAccount user = TestDataFactory.anUser().build();
+    this.file = TestDataFactory.aFile().creator(user).filename("fileName").build();
+    this.testDataManager.persist(user, this.file);
+  }
+
+  @Test
+  void testEventIsRetriedUntilDispatched() throws IOException {
+    //Given
+    this.writeAndCommitEvent();
+    assertThat(this.indexEventRepository.count()).isEqualTo(1);
+    assertThat(this.isIndexed()).isFalse();
+
+    //When
+    // a dispatcher claims the events, but its node stops before they are written to the index
+    assertThatThrownBy(() -> this.transactionTemplate.executeWithoutResult(status -> {
+      this.indexEventRepository.lockOldest(10);
+      throw new IllegalStateException("node stopped");
+    })).isInstanceOf(IllegalStateException.class);
+    long pendingAfterCrash = this.indexEventRepository.count();
+    this.indexEventDispatcher.dispatchPending();
+
+    //Then
+    assertThat(pendingAfterCrash).isEqualTo(1);
+    assertThat(this.indexEventRepository.count()).isZero();
+    assertThat(this.isIndexed()).isTrue();
+  }
+
+  @Test
+  void testImmediateDispatchSkipsEventsClaimedByBackgroundDispatcher() throws IOException {
+    //Given
+    this.writeAndCommitEvent();
+    List<IndexEvent> events = (List<IndexEvent>) this.indexEventRepository.findAll();
+
+    //When
+    // the background dispatcher holds the events while they are dispatched immediately
+    this.transactionTemplate.executeWithoutResult(status -> {
+      this.indexEventRepository.lockOldest(10);
+      this.indexEventDispatcher.dispatchNow(events);
+    });
+    long pendingWhileClaimed = this.indexEventRepository.count();
+    boolean indexedWhileClaimed = this.isIndexed();
+    this.indexEventDispatcher.dispatchNow(events);
+
+    //Then
+    assertThat(pendingWhileClaimed).isEqualTo(1);
+    assertThat(indexedWhileClaimed).isFalse();
+    assertThat(this.indexEventRepository.count()).isZero();
+    assertThat(this.isIndexed()).isTrue();
+  }
+
+  @Test
+  void testNewerEventDoesNotOvertakeClaimedOlderEvent() {
+    //Given
+    this.writeAndCommitEvent();
+    this.writeAndCommitEvent();
+    List<IndexEvent> events = (List<IndexEvent>) this.indexEventRepository.findAll();
+
+    //When
+    // the background dispatcher holds the older event of the file while the newer one is dispatched immediately
+    this.transactionTemplate.executeWithoutResult(status -> {
+      this.indexEventRepository.lockOldest(1);
+      this.indexEventDispatcher.dispatchNow(events);
+    });
+    long pendingWhileClaimed = this.indexEventRepository.count();
+    this.indexEventDispatcher.dispatchPending();
+
+    //Then
+    assertThat(pendingWhileClaimed).isEqualTo(2);
+    assertThat(this.indexEventRepository.count()).isZero();
+  }
+
+  // realtime, so documents written but not yet refreshed are seen as well
+  private boolean isIndexed() throws IOException {
+    return this.client.exists(new GetRequest(this.fileDao.getIndexName(), this.file.getId().toString()), RequestOptions.DEFAULT);
+  }
+
+  private void writeAndCommitEvent() {
+    this.transactionTemplate.executeWithoutResult(status -> {
+      try {
+        this.indexingService.reindexFile(this.file, false);
+      } catch (R2d2TechnicalException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,102 @@
+package de.mpg.mpdl.r2d2.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.exceptions.R2d2TechnicalException;
+import de.mpg.mpdl.r2d2.model.ContentBlob;
+import de.mpg.mpdl.r2d2.model.Dataset;
+import de.mpg.mpdl.r2d2.model.DatasetVersion;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+import de.mpg.mpdl.r2d2.service.storage.SwiftObjectStoreRepository;
+import de.mpg.mpdl.r2d2.util.R2D2IntegrationTest;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataManager;
+
+/**
+ * Integration test for AdminService.
+ */
+@R2D2IntegrationTest
+class AdminServiceIT {
+
+  @Autowired
+  private AdminService adminService;
+
+  @Autowired
+  private TestDataManager testDataManager;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private SwiftObjectStoreRepository objectStoreRepository;
+
+  @Test
+  @WithMockUser(roles = "ADMIN")
+  void testDeleteDatasetWithConstantNumberOfStatements() throws NotFoundException, R2d2TechnicalException {
+    //Given
+    int numberOfFiles = 30;
+    UserAccount userAccount = TestDataFactory.anUser().build();
+    Dataset dataset = TestDataFactory.aDataset().creator(userAccount).build();
+    DatasetVersion datasetVersion = TestDataFactory.aDatasetVersion().dataset(dataset).build();
+
+    // the files share the content of two blobs, one of them is also referenced by a file of another dataset
+    ContentBlob sharedBlob = aBlob("shared", numberOfFiles / 2 + 1);
+    ContentBlob datasetBlob = aBlob("dataset", numberOfFiles / 2);
+    List<Object> testData = new ArrayList<>(Arrays.asList(userAccount, datasetVersion, sharedBlob, datasetBlob));
+    for (int i = 0; i < numberOfFiles; i++) {
+      File file = TestDataFactory.aFile().creator(userAccount).datasets(Collections.singleton(datasetVersion)).build();
+      ContentBlob blob = i % 2 == 0 ? sharedBlob : datasetBlob;
+      file.setSha256(blob.getId());
+      file.setContainer(blob.getContainer());
+      testData.add(file);
+    }
+    this.testDataManager.persist(testData.toArray());
+
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+
+    //When
+    this.adminService.deleteDataset(dataset.getId());
+
+    //Then
+    // lookup of the files, release of their content, deletion of files, versions and dataset (5), the index events in one batch
+    // with at most two blocks of ids fetched from their sequence (3), and the dispatch of the dataset event after the commit: lock,
+    // ordering check, lookup of the latest version by pointer and by number, removal of the event (5)
+    assertThat(statistics.getPrepareStatementCount()).isLessThanOrEqualTo(13);
+    assertThat(this.testDataManager.findAll(File.class)).isEmpty();
+    assertThat(this.testDataManager.findAll(DatasetVersion.class)).isEmpty();
+    assertThat(this.testDataManager.findAll(ContentBlob.class)).singleElement().satisfies(blob -> {
+      assertThat(blob.getId()).isEqualTo(sharedBlob.getId());
+      assertThat(blob.getReferenceCount()).isEqualTo(1);
+    });
+    // the content is removed after the commit
+    Mockito.verify(this.objectStoreRepository).deleteContainer(datasetBlob.getContainer());
+    Mockito.verify(this.objectStoreRepository, Mockito.never()).deleteContainer(sharedBlob.getContainer());
+  }
+
+  private ContentBlob aBlob(String name, long referenceCount) {
+    ContentBlob blob = new ContentBlob();
+    blob.setId(name + "-sha256");
+    blob.setContainer(name + "-container");
+    blob.setChecksum(name + "-checksum");
+    blob.setReferenceCount(referenceCount);
+    return blob;
+  }
+
+}
@@ -0,0 +1,133 @@
+package de.mpg.mpdl.r2d2.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.mpg.mpdl.r2d2.db.ContentBlobRepository;
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.model.ContentBlob;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.model.aa.UserAccount;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
+
+/**
+ * Test class for ContentBlobService.
+ */
+@ExtendWith(MockitoExtension.class)
+class ContentBlobServiceTest {
+
+  private static final String SHA256 = "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8";
+
+  @Mock
+  private ContentBlobRepository contentBlobRepository;
+
+  @Mock
+  private FileRepository fileRepository;
+
+  @Mock
+  private ObjectStoreRepository objectStoreRepository;
+
+  @InjectMocks
+  private ContentBlobService contentBlobService;
+
+  @BeforeEach
+  void setUp() {
+    ReflectionTestUtils.setField(contentBlobService, "enabled", true);
+  }
+
+  @Test
+  void testContentOfOtherUsersIsNotReusable() {
+    //Given
+    UserAccount user = TestDataFactory.anUser().id(UUID.randomUUID()).build();
+    ContentBlob blob = aBlob("container");
+    Mockito.when(contentBlobRepository.findById(SHA256)).thenReturn(Optional.of(blob));
+    Mockito.when(fileRepository.existsReadableInContainer("container", UploadState.PUBLIC, user.getId())).thenReturn(false);
+
+    //When
+    Optional<ContentBlob> reusable = contentBlobService.findReusable(SHA256, user);
+
+    //Then
+    assertThat(reusable).isEmpty();
+  }
+
+  @Test
+  void testRegisterKnownContentRemovesUploadedContainer() throws NotFoundException {
+    //Given
+    File file = aFile();
+    Mockito.when(contentBlobRepository.addReference(SHA256, file.getId().toString(), file.getChecksum(), file.getSize()))
+        .thenReturn("container");
+
+    //When
+    contentBlobService.register(file);
+
+    //Then
+    assertThat(file.getContainer()).isEqualTo("container");
+    Mockito.verify(objectStoreRepository).deleteContainer(file.getId().toString());
+  }
+
+  @Test
+  void testUploadedContainerIsKeptUntilCommit() throws NotFoundException {
+    //Given
+    File file = aFile();
+    Mockito.when(contentBlobRepository.addReference(SHA256, file.getId().toString(), file.getChecksum(), file.getSize()))
+        .thenReturn("container");
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      //When
+      contentBlobService.register(file);
+      Mockito.verifyNoInteractions(objectStoreRepository);
+      TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    //Then
+    Mockito.verify(objectStoreRepository).deleteContainer(file.getId().toString());
+  }
+
+  @Test
+  void testSharedContentIsKeptOnDelete() throws NotFoundException {
+    //Given
+    File file = aFile();
+    file.setContainer("container");
+    Mockito.when(contentBlobRepository.deleteIfUnreferenced(SHA256)).thenReturn(0);
+
+    //When
+    contentBlobService.deleteContent(file);
+
+    //Then
+    Mockito.verify(contentBlobRepository).removeReference(SHA256);
+    Mockito.verifyNoInteractions(objectStoreRepository);
+  }
+
+  private File aFile() {
+    File file = TestDataFactory.aFile().id(UUID.randomUUID()).checksum("checksum").size(42).build();
+    file.setSha256(SHA256);
+    return file;
+  }
+
+  private ContentBlob aBlob(String container) {
+    ContentBlob blob = new ContentBlob();
+    blob.setId(SHA256);
+    blob.setContainer(container);
+    blob.setReferenceCount(1);
+    return blob;
+  }
+
+}
@@ -11,6 +11,7 @@ import org.assertj.core.api.Condition;
 import org.assertj.core.util.Strings;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 
 import de.mpg.mpdl.r2d2.exceptions.*;
 import de.mpg.mpdl.r2d2.model.*;
@@ -128,6 +129,32 @@ class DatasetVersionServiceDbImplIT {
     //TODO: Add further assertions
   }
 
+  @Test
+  void testUpdatePublicDatasetVersionKeepsAllFiles() throws InvalidStateException, R2d2TechnicalException, ValidationException,
+      OptimisticLockingException, NotFoundException, AuthorizationException {
+    //Given
+    int numberOfFiles = 30;
+    UserAccount userAccount = TestDataFactory.anUser().build();
+    R2D2Principal r2d2Principal = TestDataFactory.aR2D2Principal().userAccount(userAccount).build();
+
+    Dataset dataset = TestDataFactory.aDataset().creator(userAccount).build();
+    DatasetVersion datasetVersion = TestDataFactory.aDatasetVersion().dataset(dataset).state(Dataset.State.PUBLIC).build();
+
+    this.testDataManager.persist(userAccount, datasetVersion);
+    for (int i = 0; i < numberOfFiles; i++) {
+      this.testDataManager.persist(
+          TestDataFactory.aFile().creator(userAccount).state(File.UploadState.PUBLIC).datasets(Collections.singleton(datasetVersion)).build());
+    }
+
+    //When
+    DatasetVersion returnedDatasetVersion = this.datasetVersionServiceDbImpl.update(datasetVersion.getId(), datasetVersion, r2d2Principal);
+
+    //Then
+    assertThat(returnedDatasetVersion.getVersionNumber()).isEqualTo(2);
+    assertThat(this.datasetVersionServiceDbImpl.listFiles(returnedDatasetVersion.getVersionId(), PageRequest.of(0, 100), r2d2Principal))
+        .hasSize(numberOfFiles);
+  }
+
   @Test
   void testWithdrawDatasetVersion() throws ValidationException, R2d2TechnicalException, AuthorizationException, OptimisticLockingException,
       NotFoundException, InvalidStateException {
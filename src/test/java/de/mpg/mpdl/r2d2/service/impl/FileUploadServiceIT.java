@@ -1,16 +1,22 @@
 package de.mpg.mpdl.r2d2.service.impl;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
 
 import de.mpg.mpdl.r2d2.exceptions.*;
 import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.FileChunk;
 import de.mpg.mpdl.r2d2.model.aa.R2D2Principal;
 import de.mpg.mpdl.r2d2.model.aa.UserAccount;
 import de.mpg.mpdl.r2d2.search.model.FileIto;
@@ -19,6 +25,7 @@ import de.mpg.mpdl.r2d2.util.R2D2IntegrationTest;
 import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
 import de.mpg.mpdl.r2d2.util.testdata.TestDataIndexer;
 import de.mpg.mpdl.r2d2.util.testdata.TestDataManager;
+import de.mpg.mpdl.r2d2.util.testdata.builder.FileChunkBuilder;
 
 @R2D2IntegrationTest
 class FileUploadServiceIT {
@@ -41,14 +48,18 @@ class FileUploadServiceIT {
     //Given
     String fileName = "fileName";
     File file = TestDataFactory.aFile().filename(fileName).build();
-    InputStream inputStream = Mockito.mock(InputStream.class);
+    byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+    InputStream inputStream = new ByteArrayInputStream(content);
     UserAccount user = TestDataFactory.anUser().build();
     R2D2Principal r2D2Principal = TestDataFactory.aR2D2Principal().userAccount(user).build();
 
     this.testDataManager.persist(user);
 
-    String checksum = "eTag";
-    Mockito.when(this.swiftObjectStoreRepository.uploadFile(file, inputStream)).thenReturn(checksum);
+    String checksum = DigestUtils.md5DigestAsHex(content);
+    Mockito.when(this.swiftObjectStoreRepository.uploadFile(Mockito.eq(file), Mockito.any(InputStream.class))).thenAnswer(invocation -> {
+      StreamUtils.drain(invocation.getArgument(1, InputStream.class));
+      return checksum;
+    });
 
     //When
     File returnedFile = this.fileUploadService.uploadSingleFile(file, inputStream, r2D2Principal);
@@ -57,10 +68,43 @@ class FileUploadServiceIT {
     List<File> filesFromDB = this.testDataManager.findAll(File.class);
     List<FileIto> filesFromIndex = this.testDataIndexer.searchAll(FileIto.class);
 
-    assertThat(returnedFile).isNotNull().extracting(File::getFilename, File::getChecksum).containsExactly(fileName, checksum);
+    assertThat(returnedFile).isNotNull().extracting(File::getFilename, File::getChecksum, File::getSize).containsExactly(fileName, checksum,
+        (long) content.length);
     assertThat(filesFromDB).hasSize(1).first().usingRecursiveComparison().isEqualTo(returnedFile);
     //    assertThat(filesFromIndex).hasSize(1).first().usingRecursiveComparison().ignoringFields("internal").isEqualTo(returnedFile);
-    Mockito.verify(swiftObjectStoreRepository).uploadFile(file, inputStream);
+    Mockito.verify(swiftObjectStoreRepository).uploadFile(Mockito.eq(file), Mockito.any(InputStream.class));
+  }
+
+  @Test
+  void testUploadFileChunks() throws ValidationException, R2d2TechnicalException, AuthorizationException, OptimisticLockingException,
+      NotFoundException, InvalidStateException {
+    //Given
+    File file = TestDataFactory.aFile().filename("fileName").build();
+    InputStream inputStream = Mockito.mock(InputStream.class);
+    UserAccount user = TestDataFactory.anUser().build();
+    R2D2Principal r2D2Principal = TestDataFactory.aR2D2Principal().userAccount(user).build();
+
+    this.testDataManager.persist(user);
+    Mockito.when(this.swiftObjectStoreRepository.initiateUpload(Mockito.any(File.class))).thenReturn("uploadId");
+
+    File initiatedFile = this.fileUploadService.initNewFile(file, r2D2Principal);
+    FileChunk chunk1 = FileChunkBuilder.aFileChunk().number(1).build();
+    FileChunk chunk2 = FileChunkBuilder.aFileChunk().number(2).build();
+
+    Mockito.when(this.swiftObjectStoreRepository.uploadChunk(Mockito.any(File.class), Mockito.any(FileChunk.class),
+        Mockito.any(InputStream.class))).thenReturn("eTag");
+
+    //When
+    this.fileUploadService.uploadFileChunk(initiatedFile.getId(), chunk2, inputStream, r2D2Principal);
+    this.fileUploadService.uploadFileChunk(initiatedFile.getId(), chunk1, inputStream, r2D2Principal);
+
+    //Then
+    File fileFromDB = this.testDataManager.find(File.class, initiatedFile.getId());
+
+    assertThat(fileFromDB.getState()).isEqualTo(File.UploadState.ONGOING);
+    assertThat(fileFromDB.getStateInfo().getChunks()).extracting(FileChunk::getNumber, FileChunk::getServerEtag, FileChunk::getProgress)
+        .containsExactlyInAnyOrder(tuple(2, "eTag", FileChunk.Progress.COMPLETE), tuple(1, "eTag", FileChunk.Progress.COMPLETE));
+    assertThat(fileFromDB.getStateInfo().getUploadId()).isEqualTo("uploadId");
   }
 
 }
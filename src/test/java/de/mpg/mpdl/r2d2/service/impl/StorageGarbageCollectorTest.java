@@ -0,0 +1,111 @@
+package de.mpg.mpdl.r2d2.service.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import de.mpg.mpdl.r2d2.db.ContentBlobRepository;
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.exceptions.NotFoundException;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.search.service.impl.IndexingService;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+
+/**
+ * Test class for StorageGarbageCollector.
+ */
+@ExtendWith(MockitoExtension.class)
+class StorageGarbageCollectorTest {
+
+  @Mock
+  private FileRepository fileRepository;
+
+  @Mock
+  private ContentBlobRepository contentBlobRepository;
+
+  @Mock
+  private ObjectStoreRepository objectStoreRepository;
+
+  @Mock
+  private IndexingService indexingService;
+
+  @Mock
+  private FileUploadService fileUploadService;
+
+  @InjectMocks
+  private StorageGarbageCollector garbageCollector;
+
+  @BeforeEach
+  void setUp() {
+    ReflectionTestUtils.setField(garbageCollector, "batchSize", 100);
+    ReflectionTestUtils.setField(garbageCollector, "parallelism", 2);
+    ReflectionTestUtils.setField(garbageCollector, "deletionsPerSecond", 100.0);
+    ReflectionTestUtils.setField(garbageCollector, "maxOrphanCandidates", 100);
+    garbageCollector.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    garbageCollector.destroy();
+  }
+
+  @Test
+  void testOrphanedContainerIsDeletedWhenFoundTwice() throws NotFoundException {
+    //Given
+    String orphan = UUID.randomUUID().toString();
+    LinkedHashMap<String, Long> containers = new LinkedHashMap<>();
+    containers.put(orphan, 42L);
+    containers.put("not-a-file-container", 1L);
+    Mockito.when(objectStoreRepository.listContainers(null, 100)).thenReturn(containers);
+    Mockito.when(fileRepository.findStaleUploads(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+        .thenReturn(Collections.emptyList());
+    Mockito.when(fileRepository.findExistingIds(Mockito.any())).thenReturn(Collections.emptyList());
+    Mockito.when(contentBlobRepository.findContainersIn(Mockito.any())).thenReturn(Collections.emptyList());
+
+    //When
+    Map<String, Object> firstRun = garbageCollector.collect(false);
+    Map<String, Object> secondRun = garbageCollector.collect(false);
+
+    //Then
+    assertThat(firstRun).containsEntry("orphanedContainers", 1L).containsEntry("deletedContainers", 0L);
+    assertThat(secondRun).containsEntry("deletedContainers", 1L).containsEntry("reclaimedBytes", 42L);
+    Mockito.verify(objectStoreRepository).deleteContainer(orphan);
+    Mockito.verify(objectStoreRepository, Mockito.never()).deleteContainer("not-a-file-container");
+  }
+
+  @Test
+  void testStaleFinalizationIsResumedInsteadOfDeleted() throws NotFoundException {
+    //Given
+    File file = new File();
+    file.setId(UUID.randomUUID());
+    file.setState(UploadState.FINALIZING);
+    Mockito.when(objectStoreRepository.listContainers(null, 100)).thenReturn(new LinkedHashMap<>());
+    Mockito.when(fileRepository.findStaleUploads(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+        .thenReturn(Collections.emptyList());
+    Mockito.when(fileRepository.findStaleUploads(Mockito.eq(Collections.singletonList(UploadState.FINALIZING)), Mockito.any(),
+        Mockito.any(), Mockito.any())).thenReturn(Collections.singletonList(file));
+    Mockito.when(fileUploadService.resumeFinalization(Mockito.eq(file.getId()), Mockito.any())).thenReturn(true);
+
+    //When
+    Map<String, Object> report = garbageCollector.collect(false);
+
+    //Then
+    assertThat(report).containsEntry("resumedFinalizations", 1L).containsEntry("staleUploads", 0L);
+    Mockito.verify(fileRepository, Mockito.never()).deleteStaleUpload(Mockito.any(), Mockito.any(), Mockito.any());
+  }
+
+}
@@ -0,0 +1,128 @@
+package de.mpg.mpdl.r2d2.service.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.FileChunk;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
+import de.mpg.mpdl.r2d2.util.testdata.builder.FileChunkBuilder;
+
+/**
+ * Test class for FileSystemObjectStoreRepository.
+ */
+class FileSystemObjectStoreRepositoryTest {
+
+  @TempDir
+  Path baseDir;
+
+  private FileSystemObjectStoreRepository objectStoreRepository;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    this.objectStoreRepository = new FileSystemObjectStoreRepository(baseDir.toString());
+    this.objectStoreRepository.init();
+  }
+
+  @Test
+  void testUploadAndDownloadSingleFile() throws IOException {
+    //Given
+    File file = TestDataFactory.aFile().id(UUID.randomUUID()).build();
+    byte[] content = "single file content".getBytes(StandardCharsets.UTF_8);
+    this.objectStoreRepository.createContainer(file.getId().toString());
+
+    //When
+    String eTag = this.objectStoreRepository.uploadFile(file, new ByteArrayInputStream(content));
+
+    //Then
+    assertThat(eTag).isEqualTo(DigestUtils.md5DigestAsHex(content));
+    assertThat(this.objectStoreRepository.getFileSize(file.getId().toString())).isEqualTo(content.length);
+    try (InputStream in = this.objectStoreRepository.downloadFile(file.getId().toString(), "content")) {
+      assertThat(StreamUtils.copyToByteArray(in)).isEqualTo(content);
+    }
+    try (InputStream in = this.objectStoreRepository.downloadFile(file.getId().toString(), "content", 7, 10)) {
+      assertThat(new String(StreamUtils.copyToByteArray(in), StandardCharsets.UTF_8)).isEqualTo("file");
+    }
+  }
+
+  @Test
+  void testCreateManifestConcatenatesChunksInPartOrder() throws IOException {
+    //Given
+    File file = TestDataFactory.aFile().id(UUID.randomUUID()).build();
+    this.objectStoreRepository.createContainer(file.getId().toString());
+    FileChunk chunk1 = FileChunkBuilder.aFileChunk().number(1).build();
+    FileChunk chunk2 = FileChunkBuilder.aFileChunk().number(2).build();
+
+    chunk2.setServerEtag(this.objectStoreRepository.uploadChunk(file, chunk2, stream("second")));
+    chunk1.setServerEtag(this.objectStoreRepository.uploadChunk(file, chunk1, stream("first-")));
+    file.getStateInfo().getChunks().add(chunk2);
+    file.getStateInfo().getChunks().add(chunk1);
+
+    //When
+    String eTag = this.objectStoreRepository.createManifest(file);
+
+    //Then
+    assertThat(eTag).endsWith("-2");
+    assertThat(this.objectStoreRepository.isFileExist(file.getId().toString(), "segments/000001")).isFalse();
+    try (InputStream in = this.objectStoreRepository.downloadFile(file.getId().toString(), "content")) {
+      assertThat(new String(StreamUtils.copyToByteArray(in), StandardCharsets.UTF_8)).isEqualTo("first-second");
+    }
+  }
+
+  @Test
+  void testCreateManifestUsesOnlyRecordedChunks() throws IOException {
+    //Given
+    File file = TestDataFactory.aFile().id(UUID.randomUUID()).build();
+    this.objectStoreRepository.createContainer(file.getId().toString());
+    FileChunk chunk1 = FileChunkBuilder.aFileChunk().number(1).build();
+    FileChunk stray = FileChunkBuilder.aFileChunk().number(2).build();
+
+    chunk1.setServerEtag(this.objectStoreRepository.uploadChunk(file, chunk1, stream("recorded")));
+    chunk1.setSize(8);
+    this.objectStoreRepository.uploadChunk(file, stray, stream("-stray"));
+    file.getStateInfo().getChunks().add(chunk1);
+
+    //When
+    this.objectStoreRepository.createManifest(file);
+
+    //Then
+    try (InputStream in = this.objectStoreRepository.downloadFile(file.getId().toString(), "content")) {
+      assertThat(new String(StreamUtils.copyToByteArray(in), StandardCharsets.UTF_8)).isEqualTo("recorded");
+    }
+  }
+
+  @Test
+  void testCreateManifestRejectsReplacedChunk() {
+    //Given
+    File file = TestDataFactory.aFile().id(UUID.randomUUID()).build();
+    this.objectStoreRepository.createContainer(file.getId().toString());
+    FileChunk chunk1 = FileChunkBuilder.aFileChunk().number(1).build();
+
+    chunk1.setServerEtag(this.objectStoreRepository.uploadChunk(file, chunk1, stream("original")));
+    this.objectStoreRepository.uploadChunk(file, chunk1, stream("replaced"));
+    file.getStateInfo().getChunks().add(chunk1);
+
+    //When / Then
+    assertThatThrownBy(() -> this.objectStoreRepository.createManifest(file)).isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("ETag of chunk 1");
+    assertThat(this.objectStoreRepository.isFileExist(file.getId().toString(), "content")).isFalse();
+  }
+
+  private InputStream stream(String content) {
+    return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
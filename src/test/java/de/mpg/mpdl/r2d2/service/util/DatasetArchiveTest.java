@@ -0,0 +1,92 @@
+package de.mpg.mpdl.r2d2.service.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.util.StreamUtils;
+
+import de.mpg.mpdl.r2d2.db.FileRepository;
+import de.mpg.mpdl.r2d2.model.DatasetVersion;
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.model.File.UploadState;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
+
+/**
+ * Test class for DatasetArchive.
+ */
+@ExtendWith(MockitoExtension.class)
+class DatasetArchiveTest {
+
+  @Mock
+  private FileRepository fileRepository;
+
+  @Mock
+  private ObjectStoreRepository objectStoreRepository;
+
+  @Test
+  void testArchiveContainsAllFilesWithSafeUniqueNames() throws IOException {
+    //Given
+    DatasetVersion datasetVersion =
+        TestDataFactory.aDatasetVersion().dataset(TestDataFactory.aDataset().id(UUID.randomUUID()).build()).build();
+    File first = aFile("data.csv", "first");
+    File duplicate = aFile("data.csv", "second");
+    File escaping = aFile("../../etc/./passwd", "third");
+    File onlyDots = aFile("..\\..", "fourth");
+    File uploading = aFile("uploading.csv", "fifth");
+    uploading.setState(UploadState.ONGOING);
+    List<File> files = Arrays.asList(first, duplicate, escaping, onlyDots, uploading);
+    Mockito.when(fileRepository.findAllForVersion(Mockito.eq(datasetVersion.getVersionId()), Mockito.any()))
+        .thenReturn(new PageImpl<>(files, PageRequest.of(0, 500), files.size()));
+
+    // prefetched downloads run on the calling thread
+    DatasetArchive archive = new DatasetArchive(datasetVersion, fileRepository, objectStoreRepository, Runnable::run);
+
+    //When
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    archive.writeTo(out);
+
+    //Then
+    Map<String, String> entries = readEntries(out.toByteArray());
+    assertThat(entries).containsExactly(Map.entry("data.csv", "first"), Map.entry("data (1).csv", "second"),
+        Map.entry("etc/passwd", "third"), Map.entry(onlyDots.getId().toString(), "fourth"));
+    Mockito.verify(objectStoreRepository, Mockito.never()).downloadFile(uploading.getId().toString(), "content");
+  }
+
+  private File aFile(String filename, String content) {
+    File file = TestDataFactory.aFile().id(UUID.randomUUID()).filename(filename).state(UploadState.COMPLETE).build();
+    Mockito.lenient().when(objectStoreRepository.downloadFile(file.getId().toString(), "content"))
+        .thenReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    return file;
+  }
+
+  private Map<String, String> readEntries(byte[] archive) throws IOException {
+    Map<String, String> entries = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.put(entry.getName(), StreamUtils.copyToString(zip, StandardCharsets.UTF_8));
+      }
+    }
+    return entries;
+  }
+
+}
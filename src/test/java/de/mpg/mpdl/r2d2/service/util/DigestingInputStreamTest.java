@@ -0,0 +1,54 @@
+package de.mpg.mpdl.r2d2.service.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Test class for DigestingInputStream.
+ */
+class DigestingInputStreamTest {
+
+  @Test
+  void testDigestsAreComputedWhileReading() throws IOException {
+    //Given
+    byte[] content = "some file content".getBytes(StandardCharsets.UTF_8);
+    DigestingInputStream digestingInputStream = new DigestingInputStream(new ByteArrayInputStream(content));
+
+    //When
+    byte[] read = StreamUtils.copyToByteArray(digestingInputStream);
+
+    //Then
+    assertThat(read).isEqualTo(content);
+    assertThat(digestingInputStream.getByteCount()).isEqualTo(content.length);
+    assertThat(digestingInputStream.getMd5()).isEqualTo(DigestUtils.md5DigestAsHex(content));
+    assertThat(digestingInputStream.getSha256()).isEqualTo(Hashing.sha256().hashBytes(content).toString());
+  }
+
+  @Test
+  void testCombinePartDigests() {
+    //Given
+    byte[] part1 = "part1".getBytes(StandardCharsets.UTF_8);
+    byte[] part2 = "part2".getBytes(StandardCharsets.UTF_8);
+    byte[] concatenatedDigests = new byte[32];
+    System.arraycopy(DigestUtils.md5Digest(part1), 0, concatenatedDigests, 0, 16);
+    System.arraycopy(DigestUtils.md5Digest(part2), 0, concatenatedDigests, 16, 16);
+
+    //When
+    String combined = DigestingInputStream.combine(DigestingInputStream.MD5,
+        Arrays.asList(DigestUtils.md5DigestAsHex(part1), DigestUtils.md5DigestAsHex(part2)));
+
+    //Then
+    assertThat(combined).isEqualTo(DigestUtils.md5DigestAsHex(concatenatedDigests) + "-2");
+  }
+
+}
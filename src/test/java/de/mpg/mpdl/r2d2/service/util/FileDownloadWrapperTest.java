@@ -0,0 +1,70 @@
+package de.mpg.mpdl.r2d2.service.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import de.mpg.mpdl.r2d2.model.File;
+import de.mpg.mpdl.r2d2.service.storage.ObjectStoreRepository;
+import de.mpg.mpdl.r2d2.util.testdata.TestDataFactory;
+
+/**
+ * Test class for FileDownloadWrapper.
+ */
+@ExtendWith(MockitoExtension.class)
+class FileDownloadWrapperTest {
+
+  @Mock
+  private ObjectStoreRepository objectStoreRepository;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void testRangeOfLocalFileIsWritten() throws IOException {
+    //Given
+    FileDownloadWrapper wrapper = aWrapperForContent("0123456789");
+
+    //When
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    wrapper.writeTo(out, 2, 5);
+
+    //Then
+    assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("2345");
+  }
+
+  @Test
+  void testTruncatedLocalFileEndsWithEOFException() throws IOException {
+    //Given
+    FileDownloadWrapper wrapper = aWrapperForContent("0123456789");
+
+    //When
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    //Then
+    assertThatThrownBy(() -> wrapper.writeTo(out, 5, 99)).isInstanceOf(EOFException.class);
+    assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("56789");
+  }
+
+  private FileDownloadWrapper aWrapperForContent(String content) throws IOException {
+    File file = TestDataFactory.aFile().id(UUID.randomUUID()).build();
+    Path localFile = Files.write(tempDir.resolve("content"), content.getBytes(StandardCharsets.UTF_8));
+    Mockito.when(objectStoreRepository.getLocalFile(file.getId().toString(), "content")).thenReturn(localFile);
+    return new FileDownloadWrapper(file, objectStoreRepository);
+  }
+
+}
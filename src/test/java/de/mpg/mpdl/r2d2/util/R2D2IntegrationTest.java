@@ -37,7 +37,10 @@ import de.mpg.mpdl.r2d2.service.storage.SwiftObjectStoreRepository;
 @Target(ElementType.TYPE)
 @ExtendWith({SpringExtension.class, DeleteDatabaseExtension.class, DeleteSearchIndexExtension.class})
 //Deactivate DummyDataInitializer default data initialization by setting init.data.creation=false
-@SpringBootTest(properties = {"init.data.creation=false"})
+//Deactivate the search and aa caches, test data is indexed and stored directly and doesn't invalidate them
+//Activate the Hibernate statistics, which allow to count the statements of an operation
+@SpringBootTest(properties = {"init.data.creation=false", "r2d2.search.cache.enabled=false", "r2d2.aa.cache.enabled=false",
+    "spring.jpa.properties.hibernate.generate_statistics=true"})
 @ContextConfiguration(initializers = {DataBaseLauncher.Initializer.class, SearchEngineLauncher.Initializer.class})
 @MockBean(SwiftObjectStoreRepository.class)
 public @interface R2D2IntegrationTest {